@@ -0,0 +1,55 @@
+import ex2bench.SheetTarget;
+
+/**
+ * Exposes an Ex2Sheet built by {@link SheetGenerators}, and an ExpressionEvaluator, to the benchmarks
+ * of the ex2bench package.
+ */
+public class BenchmarkTarget implements SheetTarget {
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private Ex2Sheet sheet;
+
+    @Override
+    public void build(String shape) {
+        sheet = SheetGenerators.create(shape);
+    }
+
+    @Override
+    public int width() {
+        return sheet.width();
+    }
+
+    @Override
+    public int height() {
+        return sheet.height();
+    }
+
+    @Override
+    public String value(int x, int y) {
+        return sheet.value(x, y);
+    }
+
+    @Override
+    public void set(int x, int y, String c) {
+        sheet.set(x, y, c);
+    }
+
+    @Override
+    public void eval() {
+        sheet.eval();
+    }
+
+    @Override
+    public int[][] depth() {
+        return sheet.depth();
+    }
+
+    @Override
+    public void evaluate(int[][] dd) {
+        sheet.evaluate(dd);
+    }
+
+    @Override
+    public double evaluateExpression(String expression) throws Exception {
+        return evaluator.evaluate(expression);
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Random;
+
+/**
+ * Builds synthetic spreadsheets for the benchmarks: each generator fills a whole sheet with a
+ * typical dependency shape, so the evaluation hot paths can be measured in isolation.
+ * Cells are numbered column by column: cell i is at x = i / height, y = i % height.
+ */
+public class SheetGenerators {
+    public static final int WIDTH = 26, HEIGHT = 100;
+
+    /** The names of the available shapes (see {@link #create(String)}). */
+    public static final String CHAIN = "CHAIN", FAN_OUT = "FAN_OUT", DIAMOND = "DIAMOND",
+            RANDOM_DAG = "RANDOM_DAG", CONSTANTS = "CONSTANTS";
+
+    /**
+     * @param shape one of CHAIN, FAN_OUT, DIAMOND, RANDOM_DAG, CONSTANTS.
+     * @return a new WIDTH x HEIGHT sheet of the given shape.
+     */
+    public static Ex2Sheet create(String shape) {
+        return switch (shape) {
+            case CHAIN -> chain();
+            case FAN_OUT -> fanOut();
+            case DIAMOND -> diamonds();
+            case RANDOM_DAG -> randomDag(42, 3);
+            case CONSTANTS -> constants();
+            default -> throw new IllegalArgumentException("Unknown sheet shape: " + shape);
+        };
+    }
+
+    /** One long chain: every cell depends on the previous one (depth = number of cells - 1). */
+    public static Ex2Sheet chain() {
+        Ex2Sheet sheet = new Ex2Sheet(WIDTH, HEIGHT);
+        sheet.set(0, 0, "1");
+        for (int i = 1; i < WIDTH * HEIGHT; i++) {
+            sheet.set(i / HEIGHT, i % HEIGHT, "=" + ref(i - 1) + "+1");
+        }
+        return sheet;
+    }
+
+    /** Wide fan-out: every cell depends on A0 only (depth 1). */
+    public static Ex2Sheet fanOut() {
+        Ex2Sheet sheet = new Ex2Sheet(WIDTH, HEIGHT);
+        sheet.set(0, 0, "1");
+        for (int i = 1; i < WIDTH * HEIGHT; i++) {
+            sheet.set(i / HEIGHT, i % HEIGHT, "=A0*" + i);
+        }
+        return sheet;
+    }
+
+    /** A lattice of diamonds: each cell depends on two neighbouring cells of the previous column. */
+    public static Ex2Sheet diamonds() {
+        Ex2Sheet sheet = new Ex2Sheet(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            sheet.set(0, y, "" + y);
+        }
+        for (int x = 1; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                int below = (y + 1) % HEIGHT;
+                sheet.set(x, y, "=(" + ref(x - 1, y) + "+" + ref(x - 1, below) + ")/2");
+            }
+        }
+        return sheet;
+    }
+
+    /** A random DAG: each cell references up to refsPerCell random cells which come before it. */
+    public static Ex2Sheet randomDag(long seed, int refsPerCell) {
+        Random random = new Random(seed);
+        Ex2Sheet sheet = new Ex2Sheet(WIDTH, HEIGHT);
+        sheet.set(0, 0, "1");
+        for (int i = 1; i < WIDTH * HEIGHT; i++) {
+            StringBuilder formula = new StringBuilder("=1");
+            for (int r = 0; r < refsPerCell; r++) {
+                formula.append(r % 2 == 0 ? '+' : '-').append(ref(random.nextInt(i)));
+            }
+            sheet.set(i / HEIGHT, i % HEIGHT, formula.toString());
+        }
+        return sheet;
+    }
+
+    /** A grid of numbers only. */
+    public static Ex2Sheet constants() {
+        Ex2Sheet sheet = new Ex2Sheet(WIDTH, HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            sheet.set(i / HEIGHT, i % HEIGHT, "" + (i * 0.5));
+        }
+        return sheet;
+    }
+
+    private static String ref(int i) {
+        return ref(i / HEIGHT, i % HEIGHT);
+    }
+
+    private static String ref(int x, int y) {
+        return (char) ('A' + x) + Integer.toString(y);
+    }
+}
@@ -0,0 +1,27 @@
+package ex2bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of ExpressionEvaluator.evaluate on short and long arithmetic expressions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionEvaluatorBenchmark {
+
+    @Param({"3+5*2/(7-2)", "((2+3)*(4+5)/(6+7)*(8+9)/(10+11)*(12+13)*(14+15))", " 1.25 * -4 + 17.5 / 2.5 - --3 "})
+    public String expression;
+
+    private final SheetTarget target = SheetTarget.create();
+
+    @Benchmark
+    public double evaluate() throws Exception {
+        return target.evaluateExpression(expression);
+    }
+}
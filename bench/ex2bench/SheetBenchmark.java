@@ -0,0 +1,79 @@
+package ex2bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the Ex2Sheet hot paths over the synthetic sheets of SheetGenerators.
+ * Run main() to measure every benchmark of this package with the GC profiler, which reports the
+ * allocation rate per operation (gc.alloc.rate.norm) next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SheetBenchmark {
+
+    @Param({"CHAIN", "FAN_OUT", "DIAMOND", "RANDOM_DAG", "CONSTANTS"})
+    public String shape;
+
+    private SheetTarget sheet;
+    private int[][] depths;
+    private boolean toggle;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sheet = SheetTarget.create();
+        sheet.build(shape);
+        depths = sheet.depth();
+    }
+
+    /** Reads the value of every cell, as the GUI does on each frame. */
+    @Benchmark
+    public void valueOfAllCells(Blackhole blackhole) {
+        for (int x = 0; x < sheet.width(); x++) {
+            for (int y = 0; y < sheet.height(); y++) {
+                blackhole.consume(sheet.value(x, y));
+            }
+        }
+    }
+
+    @Benchmark
+    public int[][] depth() {
+        return sheet.depth();
+    }
+
+    @Benchmark
+    public void eval() {
+        sheet.eval();
+    }
+
+    /** Recomputes the whole sheet level by level. */
+    @Benchmark
+    public void evaluateByDepth() {
+        sheet.evaluate(depths);
+    }
+
+    /** Changes the input cell A0, paying for the recalculation of everything that depends on it. */
+    @Benchmark
+    public void editInput() {
+        toggle = !toggle;
+        sheet.set(0, 0, toggle ? "2" : "1");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SheetBenchmark.class.getName())
+                .include(ExpressionEvaluatorBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,41 @@
+package ex2bench;
+
+/**
+ * The operations measured by the benchmarks.
+ * JMH does not accept benchmarks in the default package, and a named package can not refer to the
+ * (default package) spreadsheet classes, so the benchmarks call them through this interface,
+ * which is implemented by BenchmarkTarget in the default package and loaded with {@link #create()}.
+ */
+public interface SheetTarget {
+
+    /** Replaces the sheet by a new synthetic sheet of the given shape (see SheetGenerators). */
+    void build(String shape);
+
+    int width();
+
+    int height();
+
+    String value(int x, int y);
+
+    void set(int x, int y, String c);
+
+    void eval();
+
+    int[][] depth();
+
+    void evaluate(int[][] dd);
+
+    /** Evaluates an arithmetic expression with a reused ExpressionEvaluator. */
+    double evaluateExpression(String expression) throws Exception;
+
+    /**
+     * @return a new instance of the default package implementation.
+     */
+    static SheetTarget create() {
+        try {
+            return (SheetTarget) Class.forName("BenchmarkTarget").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkTarget is not on the class path", e);
+        }
+    }
+}
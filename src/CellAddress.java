@@ -0,0 +1,111 @@
+/**
+ * The coordinate codec of the spreadsheet: converts between cell references ("A0", "b12", "AA100", "ZZZ99999"),
+ * (x, y) coordinates and a single packed long, without regular expressions.
+ * Columns are named like in common spreadsheets: A..Z, AA..AZ, BA.. ZZ, AAA.. (bijective base 26).
+ * The packed form holds x in the high 32 bits and y in the low 32 bits, so for valid coordinates the natural
+ * order of the packed values is column by column, row by row.
+ */
+public final class CellAddress {
+    /** The packed value returned for anything which is not a valid reference. */
+    public static final long NONE = -1;
+
+    private CellAddress() {}
+
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static int x(long address) {
+        return (int) (address >>> 32);
+    }
+
+    public static int y(long address) {
+        return (int) address;
+    }
+
+    /**
+     * Parses a whole String as a cell reference.
+     * @return the packed coordinate, or NONE if s is not a reference.
+     */
+    public static long parse(CharSequence s) {
+        return s == null ? NONE : parse(s, 0, s.length());
+    }
+
+    /**
+     * Parses the characters [from, to) of s as a cell reference: one or more letters (any case)
+     * followed by one or more digits.
+     * @return the packed coordinate, or NONE if the characters are not a reference.
+     */
+    public static long parse(CharSequence s, int from, int to) {
+        int i = Lexer.skipLetters(s, from, to);
+        if (i == from || i == to) return NONE;
+        int x = parseColumn(s, from, i);
+        int y = parseRow(s, i, to);
+        return x < 0 || y < 0 ? NONE : pack(x, y);
+    }
+
+    /**
+     * @return the 0-based index of the column named by the letters [from, to) of s, or -1 if invalid.
+     */
+    public static int parseColumn(CharSequence s, int from, int to) {
+        if (from >= to) return -1;
+        long column = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!Lexer.isLetter(c)) return -1;
+            column = column * 26 + ((c | 0x20) - 'a' + 1); // c | 0x20 is the lower case letter
+            if (column > Integer.MAX_VALUE) return -1;
+        }
+        return (int) (column - 1);
+    }
+
+    /**
+     * @return the row number written by the digits [from, to) of s, or -1 if invalid.
+     */
+    public static int parseRow(CharSequence s, int from, int to) {
+        if (from >= to) return -1;
+        long row = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!Lexer.isDigit(c)) return -1;
+            row = row * 10 + (c - '0');
+            if (row > Integer.MAX_VALUE) return -1;
+        }
+        return (int) row;
+    }
+
+    /**
+     * @return the name of the given column, e.g., 0 -> "A", 25 -> "Z", 26 -> "AA", 701 -> "ZZ", 702 -> "AAA".
+     */
+    public static String columnName(int x) {
+        if (x < 0) throw new IllegalArgumentException("Negative column: " + x);
+        char[] letters = new char[7];
+        int i = letters.length;
+        long n = x + 1L;
+        while (n > 0) {
+            n--;
+            letters[--i] = (char) ('A' + n % 26);
+            n /= 26;
+        }
+        return new String(letters, i, letters.length - i);
+    }
+
+    /**
+     * @return the reference of the cell (x, y), e.g., (1, 3) -> "B3".
+     */
+    public static String toRef(int x, int y) {
+        if (y < 0) throw new IllegalArgumentException("Negative row: " + y);
+        return columnName(x) + y;
+    }
+
+    /**
+     * @return true iff the reference in [from, to) of s (letters then digits) is written exactly as toRef writes it:
+     * upper case letters and a row without leading zeros.
+     */
+    public static boolean isCanonical(CharSequence s, int from, int to) {
+        int i = from;
+        while (i < to && s.charAt(i) >= 'A' && s.charAt(i) <= 'Z') i++;
+        if (i == from || i == to || (s.charAt(i) == '0' && to - i > 1)) return false;
+        return Lexer.skipDigits(s, i, to) == to;
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CellAddressTest {
+
+    @Test
+    public void testPacking() {
+        long address = CellAddress.pack(18277, 999999);
+        assertEquals(18277, CellAddress.x(address));
+        assertEquals(999999, CellAddress.y(address));
+        assertTrue(CellAddress.pack(0, 5) < CellAddress.pack(1, 0), "Ordered column by column, row by row.");
+    }
+
+    @Test
+    public void testColumnNames() {
+        assertEquals("A", CellAddress.columnName(0));
+        assertEquals("Z", CellAddress.columnName(25));
+        assertEquals("AA", CellAddress.columnName(26));
+        assertEquals("ZZ", CellAddress.columnName(701));
+        assertEquals("AAA", CellAddress.columnName(702));
+        assertEquals("ZZZ", CellAddress.columnName(18277));
+        for (int x = 0; x < 20000; x++) {
+            String name = CellAddress.columnName(x);
+            assertEquals(x, CellAddress.parseColumn(name, 0, name.length()), name);
+        }
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(CellAddress.pack(1, 3), CellAddress.parse("B3"));
+        assertEquals(CellAddress.pack(1, 3), CellAddress.parse("b3"));
+        assertEquals(CellAddress.pack(26, 100), CellAddress.parse("AA100"));
+        assertEquals(CellAddress.pack(18277, 250000), CellAddress.parse("zzz250000"));
+        assertEquals(CellAddress.pack(2, 7), CellAddress.parse("=C7+1", 1, 3));
+        assertEquals("AB12", CellAddress.toRef(27, 12));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertEquals(CellAddress.NONE, CellAddress.parse(null));
+        assertEquals(CellAddress.NONE, CellAddress.parse(""));
+        assertEquals(CellAddress.NONE, CellAddress.parse("A"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("12"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("1A"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("A1B"));
+        assertEquals(CellAddress.NONE, CellAddress.parse(" A1"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("A-1"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("A99999999999"));
+        assertEquals(CellAddress.NONE, CellAddress.parse("ZZZZZZZZ1"));
+    }
+}
@@ -1,32 +1,63 @@
+/**
+ * An immutable cell coordinate. CellEntry.of hands out shared instances (a flyweight), so code which
+ * repeatedly looks up the same cells does not allocate a new entry per lookup.
+ */
 public class CellEntry implements Index2D {
+    private static final int CACHE_BITS = 12;
+    // A direct mapped cache keyed by the packed coordinate. Entries are immutable (final fields),
+    // so a racy write only costs a duplicate instance and a reader always sees a complete entry.
+    private static final CellEntry[] CACHE = new CellEntry[1 << CACHE_BITS];
+
     private final int row;    // 0-based row index
     private final int column; // 0-based column index
 
     public CellEntry(String reference) {
-        // Validate that the reference matches the format: single letter + number (e.g., A0, B2)
-        if (!reference.matches("[A-Za-z]\\d+")) {
+        // Letters for the column (A..Z, AA..ZZ, AAA..) followed by the row number, e.g., A0, b2, AA100
+        long address = CellAddress.parse(reference);
+        if (address == CellAddress.NONE) {
             throw new IllegalArgumentException("Invalid cell reference: " + reference);
         }
-
-        // Extract the column letter and row number
-        String column = reference.substring(0, 1); // First character (capital letter for column)
-        String row = reference.substring(1);       // Remaining characters (digits for row)
-
-        this.column = column.charAt(0) - 'A';      // Convert column letter to 0-based index
-        this.row = Integer.parseInt(row);         // Row is already 0-based
+        this.column = CellAddress.x(address);
+        this.row = CellAddress.y(address);
     }
     public CellEntry(int x, int y) {
         this.column = x;
         this.row = y;
     }
 
+    /**
+     * @return the shared entry of the cell (x, y).
+     */
+    public static CellEntry of(int x, int y) {
+        long key = CellAddress.pack(x, y);
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - CACHE_BITS));
+        CellEntry entry = CACHE[slot];
+        if (entry == null || entry.column != x || entry.row != y) {
+            entry = new CellEntry(x, y);
+            CACHE[slot] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the shared entry of the given cell reference (e.g., "B3").
+     * @throws IllegalArgumentException if the reference is invalid.
+     */
+    public static CellEntry of(String reference) {
+        long address = CellAddress.parse(reference);
+        if (address == CellAddress.NONE) {
+            throw new IllegalArgumentException("Invalid cell reference: " + reference);
+        }
+        return of(CellAddress.x(address), CellAddress.y(address));
+    }
+
     public static String toCellRef(int x, int y) {
         String s;
-        if (x<0 || x>25 || y<0 || y>99) {
+        if (x<0 || y<0) {
             s = Ex2Utils.ERR_FORM;
         }
         else {
-            s = (char) ('A' + x) + Integer.toString(y);
+            s = CellAddress.toRef(x, y);
         }
         return s;
     }
@@ -37,33 +68,35 @@ public class CellEntry implements Index2D {
 
     @Override
     public boolean isValid() {
-        boolean valid = false;
-        if (this.toString().matches("[A-Z][0-9]+"))
-        {
-            valid = true;
-        }
-        else if (this.toString().matches("[a-z][0-9]+"))
-        {
-            valid = true;
-        }
-        if (this.toString().length()>3)
-        {
-            valid = false;
-        }
-        return valid;
+        return column >= 0 && row >= 0;
     }
 
     @Override
     public int getX() {
-        return 0;
+        return column;
     }
 
     @Override
     public int getY() {
-        return 0;
+        return row;
     }
 
     public int getRow() {
         return row;
     }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CellEntry && ((CellEntry) other).column == column && ((CellEntry) other).row == row;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(CellAddress.pack(column, row));
+    }
+
+    @Override
+    public String toString() {
+        return toCellRef(column, row);
+    }
 }
@@ -0,0 +1,34 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the shared (flyweight) instances of CellEntry.
+ */
+public class CellEntryFlyweightTest {
+
+    @Test
+    public void testEntriesAreShared() {
+        CellEntry entry = CellEntry.of(3, 7);
+        assertSame(entry, CellEntry.of(3, 7));
+        assertSame(entry, CellEntry.of("d7"));
+        assertEquals(3, entry.getX());
+        assertEquals(7, entry.getY());
+        assertEquals("D7", entry.toString());
+        assertTrue(entry.isValid());
+    }
+
+    @Test
+    public void testCollidingEntriesStayCorrect() {
+        for (int x = 0; x < 200; x++) {
+            for (int y = 0; y < 200; y++) {
+                CellEntry entry = CellEntry.of(x, y);
+                assertEquals(x, entry.getX());
+                assertEquals(y, entry.getY());
+                assertEquals(new CellEntry(x, y), entry);
+                assertEquals(new CellEntry(x, y).hashCode(), entry.hashCode());
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> CellEntry.of("7D"));
+    }
+}
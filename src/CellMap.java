@@ -0,0 +1,150 @@
+/**
+ * An open addressing hash map from a packed (x, y) coordinate to the SCell stored there.
+ * Keys are primitive longs (see {@link CellAddress#pack(int, int)}) held in a parallel array, so only the populated
+ * cells of a sheet cost memory: no boxing and no entry objects. Collisions are resolved by linear probing
+ * and removal shifts the following entries back, so no tombstones are left behind.
+ */
+public class CellMap {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private SCell[] cells; // null marks a free slot
+    private int size;
+
+    public CellMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of cells this map should hold without resizing.
+     */
+    public CellMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        cells = new SCell[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the cell stored at the given key, or null if there is none.
+     */
+    public SCell get(long key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : cells[slot];
+    }
+
+    /**
+     * Stores a cell at the given key, replacing the previous one (if any).
+     */
+    public void put(long key, SCell cell) {
+        int mask = cells.length - 1;
+        int slot = slot(key, mask);
+        while (cells[slot] != null) {
+            if (keys[slot] == key) {
+                cells[slot] = cell;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        cells[slot] = cell;
+        if (++size > cells.length * LOAD_FACTOR) {
+            resize(cells.length * 2);
+        }
+    }
+
+    /**
+     * Removes the cell stored at the given key (if any).
+     */
+    public void remove(long key) {
+        int mask = cells.length - 1;
+        int slot = slot(key, mask);
+        while (cells[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (cells[slot] == null) return;
+        // Shift back the entries of the probe sequence which follows the freed slot
+        int free = slot;
+        for (int next = (free + 1) & mask; cells[next] != null; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                cells[free] = cells[next];
+                free = next;
+            }
+        }
+        cells[free] = null;
+        size--;
+    }
+
+    /**
+     * Removes all the cells.
+     */
+    public void clear() {
+        java.util.Arrays.fill(cells, null);
+        size = 0;
+    }
+
+    /**
+     * @return the keys of all the stored cells, in ascending order (column by column, row by row).
+     */
+    public long[] sortedKeys() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < cells.length; slot++) {
+            if (cells[slot] != null) result[n++] = keys[slot];
+        }
+        java.util.Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * The slots of this map, for allocation free iteration:
+     * for (int s = 0; s &lt; map.capacity(); s++) if (map.cellAt(s) != null) ... map.keyAt(s) ...
+     */
+    public int capacity() {
+        return cells.length;
+    }
+
+    public SCell cellAt(int slot) {
+        return cells[slot];
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @return the slot holding the given key, or -1 if there is none.
+     */
+    public int slotOf(long key) {
+        int mask = cells.length - 1;
+        for (int slot = slot(key, mask); cells[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        SCell[] oldCells = cells;
+        keys = new long[capacity];
+        cells = new SCell[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCells.length; i++) {
+            if (oldCells[i] == null) continue;
+            int slot = slot(oldKeys[i], mask);
+            while (cells[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            cells[slot] = oldCells[i];
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads neighbouring coordinates
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CellMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        CellMap map = new CellMap();
+        SCell a = new SCell("1"), b = new SCell("2");
+        map.put(CellAddress.pack(0, 0), a);
+        map.put(CellAddress.pack(3, 7), b);
+        assertSame(a, map.get(CellAddress.pack(0, 0)));
+        assertSame(b, map.get(CellAddress.pack(3, 7)));
+        assertNull(map.get(CellAddress.pack(7, 3)));
+        assertEquals(2, map.size());
+        map.remove(CellAddress.pack(0, 0));
+        assertNull(map.get(CellAddress.pack(0, 0)));
+        assertSame(b, map.get(CellAddress.pack(3, 7)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(7);
+        CellMap map = new CellMap();
+        Map<Long, SCell> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = CellAddress.pack(random.nextInt(40), random.nextInt(200));
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                SCell cell = new SCell("" + i);
+                map.put(key, cell);
+                expected.put(key, cell);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 200; y++) {
+                assertSame(expected.get(CellAddress.pack(x, y)), map.get(CellAddress.pack(x, y)));
+            }
+        }
+        assertEquals(expected.size(), map.sortedKeys().length);
+    }
+}
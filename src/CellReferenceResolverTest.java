@@ -10,10 +10,10 @@ class CellReferenceResolverTest {
         String reference = "A1";
 
         // Act
-        int[] result = CellReferenceResolver.resolveCellReference(reference);
+        long result = CellReferenceResolver.resolveCellReference(reference);
 
         // Assert
-        assertArrayEquals(new int[]{0, 1}, result);
+        assertEquals(CellAddress.pack(0, 1), result);
     }
 
     @Test
@@ -22,10 +22,10 @@ class CellReferenceResolverTest {
         String reference = "Z99";
 
         // Act
-        int[] result = CellReferenceResolver.resolveCellReference(reference);
+        long result = CellReferenceResolver.resolveCellReference(reference);
 
         // Assert
-        assertArrayEquals(new int[]{25, 99}, result);
+        assertEquals(CellAddress.pack(25, 99), result);
     }
 
     @Test
@@ -79,10 +79,10 @@ class CellReferenceResolverTest {
         String reference = "A0";
 
         // Act
-        int[] result = CellReferenceResolver.resolveCellReference(reference);
+        long result = CellReferenceResolver.resolveCellReference(reference);
 
         // Assert
-        assertArrayEquals(new int[]{0, 0}, result);
+        assertEquals(CellAddress.pack(0, 0), result);
     }
 
     @Test
@@ -91,10 +91,10 @@ class CellReferenceResolverTest {
         String reference = "Z99";
 
         // Act
-        int[] result = CellReferenceResolver.resolveCellReference(reference);
+        long result = CellReferenceResolver.resolveCellReference(reference);
 
         // Assert
-        assertArrayEquals(new int[]{25, 99}, result);
+        assertEquals(CellAddress.pack(25, 99), result);
     }
 
     @Test
@@ -114,4 +114,25 @@ class CellReferenceResolverTest {
         // Act & Assert
         assertThrows(IllegalArgumentException.class, () -> CellReferenceResolver.resolveCellReference(reference));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testResolveCellReference_LargeSheet() {
+        // Arrange
+        String reference = "AA250000";
+
+        // Act
+        long result = CellReferenceResolver.resolveCellReference(reference, 702, 300000);
+
+        // Assert
+        assertEquals(CellAddress.pack(26, 250000), result);
+        assertThrows(IllegalArgumentException.class, () -> CellReferenceResolver.resolveCellReference("AAA1", 702, 300000));
+    }
+
+    @Test
+    void testResolveCellReference_LowercaseAndMultiLetterColumns() {
+        // Act & Assert
+        assertEquals(CellAddress.pack(3, 7), CellReferenceResolver.resolveCellReference("d7"));
+        assertEquals(CellAddress.pack(27, 7), CellReferenceResolver.resolveCellReference("ab7", 100, 100));
+        assertEquals(CellAddress.pack(701, 0), CellReferenceResolver.resolveCellReference("Zz0", 702, 1));
+    }
+}
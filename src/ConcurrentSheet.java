@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread safe Sheet: wraps an Ex2Sheet with a StampedLock, so any number of threads may read and edit it.
+ * <p>
+ * Reading a value is optimistic: the value is read without any lock (and without writing to the sheet)
+ * and then validated against the lock's stamp; only if a writer interfered is it read again under the read lock.
+ * Readers therefore never block each other nor the writers, and a read costs no more than on an Ex2Sheet.
+ * <p>
+ * Edits take the write lock. Edits are not striped by region: setting one cell recomputes every cell which
+ * depends on it, wherever it is, so two edits of "disjoint" regions may still touch the same cells.
+ * <p>
+ * A Cell returned by get may be read, but must not be changed: edit through set.
+ */
+public class ConcurrentSheet implements Sheet {
+    private final Ex2Sheet sheet;
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentSheet(Ex2Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    public ConcurrentSheet(int width, int height) {
+        this(new Ex2Sheet(width, height));
+    }
+
+    @Override
+    public String value(int x, int y) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String value = sheet.peekValue(x, y);
+                if (lock.validate(stamp)) return value;
+            } catch (RuntimeException e) {
+                // An inconsistent view of a sheet being edited, read again under the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return sheet.value(x, y);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String eval(int x, int y) {
+        return value(x, y);
+    }
+
+    @Override
+    public Cell get(int x, int y) {
+        long stamp = lock.readLock();
+        try {
+            return sheet.get(x, y);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Cell get(String entry) {
+        long stamp = lock.readLock();
+        try {
+            return sheet.get(entry);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void set(int x, int y, String c) {
+        long stamp = lock.writeLock();
+        try {
+            sheet.set(x, y, c);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void eval() {
+        long stamp = lock.writeLock();
+        try {
+            sheet.eval();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void evaluate(int[][] dd) {
+        long stamp = lock.writeLock();
+        try {
+            sheet.evaluate(dd);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int[][] depth() {
+        long stamp = lock.readLock();
+        try {
+            return sheet.depth();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void save(String fileName) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            sheet.save(fileName);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void load(String fileName) throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            sheet.load(fileName);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isIn(int x, int y) {
+        return sheet.isIn(x, y); // The size of a sheet never changes
+    }
+
+    @Override
+    public int width() {
+        return sheet.width();
+    }
+
+    @Override
+    public int height() {
+        return sheet.height();
+    }
+}
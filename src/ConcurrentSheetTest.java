@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A stress test: writers edit the sheet while readers check that every value they read is consistent.
+ * Column w holds an input v in row 0 (written by writer w with increasing values) and a chain of formulas
+ * "=w(i-1)+w0" in rows 1..CHAIN, so row i is (i+1)v; column Z sums the last rows of all the columns.
+ * A value computed from a half updated sheet would not be a multiple of CHAIN+1.
+ */
+public class ConcurrentSheetTest {
+    private static final int WRITERS = 4, READERS = 4, EDITS = 5000, CHAIN = 50;
+
+    @Test
+    public void testReadersSeeConsistentValuesWhileWritersEdit() throws Exception {
+        ConcurrentSheet sheet = new ConcurrentSheet(26, 100);
+        StringBuilder total = new StringBuilder("=0");
+        for (int w = 0; w < WRITERS; w++) {
+            String column = CellAddress.columnName(w);
+            sheet.set(w, 0, "0");
+            for (int i = 1; i <= CHAIN; i++) {
+                sheet.set(w, i, "=" + column + (i - 1) + "+" + column + "0");
+            }
+            total.append('+').append(column).append(CHAIN);
+        }
+        sheet.set(25, 0, total.toString());
+
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + READERS);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>(), readers = new ArrayList<>();
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                int column = w;
+                writers.add(threads.submit(() -> {
+                    start.await();
+                    for (int v = 1; v <= EDITS; v++) {
+                        sheet.set(column, 0, Integer.toString(v));
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < READERS; r++) {
+                readers.add(threads.submit(() -> {
+                    start.await();
+                    double[] last = new double[WRITERS];
+                    while (writing.get()) {
+                        for (int w = 0; w < WRITERS; w++) {
+                            double value = Double.parseDouble(sheet.value(w, CHAIN));
+                            assertEquals(0, value % (CHAIN + 1), "A torn value in column " + w + ": " + value);
+                            assertTrue(value >= last[w], "Values of column " + w + " went back in time.");
+                            last[w] = value;
+                        }
+                        double sum = Double.parseDouble(sheet.value(25, 0));
+                        assertEquals(0, sum % (CHAIN + 1), "A torn total: " + sum);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) writer.get(60, TimeUnit.SECONDS);
+            writing.set(false);
+            for (Future<?> reader : readers) reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdownNow();
+        }
+
+        for (int w = 0; w < WRITERS; w++) {
+            assertEquals(Double.toString((CHAIN + 1.0) * EDITS), sheet.value(w, CHAIN));
+        }
+        assertEquals(Double.toString((CHAIN + 1.0) * EDITS * WRITERS), sheet.value(25, 0));
+    }
+
+    @Test
+    public void testDelegatesToTheSheet() {
+        ConcurrentSheet sheet = new ConcurrentSheet(5, 5);
+        sheet.set(0, 0, "2");
+        sheet.set(1, 0, "=A0*A0");
+        assertEquals("4.0", sheet.value(1, 0));
+        assertEquals("=A0*A0", sheet.get("B0").getData());
+        assertEquals(1, sheet.depth()[1][0]);
+        assertNull(sheet.value(5, 5));
+        assertFalse(sheet.isIn(5, 5));
+    }
+}
@@ -17,6 +17,11 @@ public class Ex2GUI {
 
 	private static Sheet table; // this is the main data (an implementation of the Sheet interface).
 	private static Index2D cord = null; // a table entry used by the GUI of setting up a cell value / form
+	// The render cache: the text and the color each cell was last drawn with (null: not drawn yet).
+	private static String[][] shownText;
+	private static Color[][] shownColor;
+	private static volatile boolean changed = true; // the table may have changed since the last frame
+	private static final double CELL_MARGIN = 0.05; // keeps the erased area of a cell off its lines
 	public Ex2GUI() {}  // an empty (redundant) constructor.
 
 	/** The main function for running Ex2 */
@@ -36,12 +41,15 @@ public class Ex2GUI {
 		StdDrawEx2.setPenRadius(Ex2Utils.PEN_RADIUS);
 		StdDrawEx2.enableDoubleBuffering();
 		table.eval();
+		StdDrawEx2.clear(); // clear the GUI (Ex2 window).
+		drawFrame(); // draws the lines (once, cells are redrawn within them).
 		// endless loop (GUI)
 		while (true) {
-			StdDrawEx2.clear(); // clear the GUI (Ex2 window).
-			drawFrame(); // draws the lines.
-			drawCells(); // draws the cells
-			StdDrawEx2.show(); // presents the window.
+			if (changed) { // an idle GUI neither evaluates nor draws anything
+				changed = false;
+				drawCells(); // draws the cells which changed
+				StdDrawEx2.show(); // presents the window.
+			}
 			int xx = StdDrawEx2.getXX(); // gets the x coordinate of the mouse click (-1 if none)
 			int yy = StdDrawEx2.getYY(); // gets the y coordinate of the mouse click (-1 if none)
 			inputCell(xx,yy); 			 // if isIn(xx,yy) an input window will be opened to allow the user to edit cell (xx,yy);
@@ -60,6 +68,7 @@ public class Ex2GUI {
 	public static void load(String fileName){
 		try {
 			table.load(fileName);
+			changed = true;
 		}
 		catch (IOException e) {
             //noinspection CallToPrintStackTrace
@@ -94,12 +103,16 @@ public class Ex2GUI {
 		}
 	}
 	/**
-	 * Draws the content of each cell (none empty).
+	 * Draws the content of each cell whose text or color changed since it was last drawn:
+	 * the cell is erased (within its lines) and drawn again; unchanged cells are left as they are.
 	 */
 	private static void drawCells() {
-		StdDrawEx2.setPenColor(StdDrawEx2.BLACK);
 		int max_y = table.height();
 		int maxx = table.width();
+		if (shownText == null || shownText.length != maxx || shownText[0].length != max_y) {
+			shownText = new String[maxx][max_y];
+			shownColor = new Color[maxx][max_y];
+		}
 		double x_space = Ex2Utils.GUI_X_SPACE, x_start = Ex2Utils.GUI_X_START;
 		double y_height = Ex2Utils.GUI_Y_TEXT_START;
 		for (int x = 0; x < maxx; x = x + 1) {
@@ -107,16 +120,20 @@ public class Ex2GUI {
 			for (int y = 0; y < max_y; y = y + 1) {
 				String w = table.value(x, y);//""+abc[x]+y;
 				Cell cc = table.get(x, y);
-				int t = cc.getType();
-				StdDrawEx2.setPenColor(getColorFromType(t));
+				Color color = getColorFromType(cc.getType());
 				int max = Math.min(Ex2Utils.MAX_CHARS, w.length());
 				w = w.substring(0, max);
+				if (w.equals(shownText[x][y]) && color.equals(shownColor[x][y])) {continue;}
+				StdDrawEx2.setPenColor(StdDrawEx2.WHITE);
+				StdDrawEx2.filledRectangle(xc, max_y - y - 0.5, x_space / 2 - CELL_MARGIN, 0.5 - CELL_MARGIN);
+				StdDrawEx2.setPenColor(color);
 				double yc = max_y - (y + 1 - y_height);
 				StdDrawEx2.text(xc, yc, w);
+				shownText[x][y] = w;
+				shownColor[x][y] = color;
 			}
 		}
 	}
-
 	/** input a content into cell(xx,yy) if it is within this SpreadSheet.
 	 *
 	 * @param xx the x coordinate of the required cell.
@@ -125,7 +142,7 @@ public class Ex2GUI {
 	private static void inputCell(int xx,int yy) {
 		if(table.isIn(xx,yy)) {
 			Cell cc = table.get(xx,yy);
-			cord = new CellEntry(xx, yy);
+			cord = CellEntry.of(xx, yy);
 			String ww = " "+CellEntry.toCellRef(xx, yy).toUpperCase()+" : " + cc.getData();
 			StdDrawEx2.text(Ex2Utils.GUI_X_START, Ex2Utils.MAX_X-1, ww);
 			StdDrawEx2.show();
@@ -143,6 +160,9 @@ public class Ex2GUI {
 				}
 			}
 			table.eval();
+			StdDrawEx2.setPenColor(StdDrawEx2.WHITE); // erase the input line
+			StdDrawEx2.filledRectangle(Ex2Utils.MAX_X / 2.0, Ex2Utils.MAX_X - 1, Ex2Utils.MAX_X / 2.0, 0.5);
+			changed = true;
 			StdDrawEx2.resetXY();
 		}
 	}
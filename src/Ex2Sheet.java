@@ -1,16 +1,115 @@
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class Ex2Sheet implements Sheet {
-    private final SCell[][] table;
+    /**
+     * The cell presented at every position which was never set: empty and read only.
+     * It is shared by all sheets, so an empty position costs no memory at all.
+     */
+    private static final SCell EMPTY = new EmptyCell();
 
-    public Ex2Sheet(int width, int height) {
-        table = new SCell[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                table[i][j] = new SCell(""); // Initialize empty cells
-            }
+    /**
+     * The class of EMPTY: every method which would change a cell throws, so no sheet can change what another
+     * one presents (or reads, as a formula referencing an empty position reads EMPTY).
+     */
+    private static final class EmptyCell extends SCell {
+        EmptyCell() {
+            super(Ex2Utils.EMPTY_CELL, Ex2Utils.EMPTY_CELL);
+        }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("The empty cell is read only, use Sheet.set()");
+        }
+
+        @Override
+        public void setData(String content) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setData(String content, FormulaTemplates templates) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setType(int type) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setType(int type, String cellData) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setOrder(int order) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setValue(double value, int status) {
+            throw readOnly();
+        }
+
+        @Override
+        public void markEvaluating() {
+            throw readOnly();
         }
+
+        @Override
+        public void invalidate() {
+            throw readOnly();
+        }
+
+        @Override
+        public void setAddress(long address) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setPendingInputs(int pendingInputs) {
+            throw readOnly();
+        }
+
+        @Override
+        public void addDependency(SCell referencedCell) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clearDependencies() {
+            throw readOnly();
+        }
+    }
+
+    private final int width, height;
+    private final CellMap cells = new CellMap(); // Only the cells which were set (or are referenced by a formula)
+    private final RangeIndex ranges = new RangeIndex(); // Aggregates of the columns covered by ranges, and their watchers
+    private final FormulaTemplates templates = new FormulaTemplates(); // Formulas shared by cells, e.g., filled down
+    private final Evaluator evaluator = new Evaluator(true);
+    private ForkJoinPool pool; // Used by evaluate(int[][]) and loadMapped to work in parallel (null: sequential)
+    private static final int PARALLEL_THRESHOLD = 256; // Cells per task when a level is computed in parallel
+    private static final int MIN_RUN = 16;      // Shortest run of a column computed at once (see computeRun)
+    private static final int RUN_CHUNK = 4096;  // Rows of a run computed at once (and per task)
+    private Run[] runs = new Run[0];       // The runs of this sheet (see findRuns), as of version runsVersion
+    private int version, runsVersion = -1; // version changes whenever a cell is added or dropped, or a formula changes
+    // Scratch structures of recalculate, reused by every edit (the traversal itself allocates nothing)
+    private final ArrayList<SCell> affected = new ArrayList<>();
+    private final ArrayDeque<SCell> work = new ArrayDeque<>();
+    private final ArrayList<SCell> dependents = new ArrayList<>(); // Reused by dependentsOf
+    private int[] columnEnds = new int[0]; // Per column, 1 + the last row a cell was ever stored at (see indexColumn)
+
+    public Ex2Sheet(int width, int height) {
+        this.width = width;
+        this.height = height;
     }
 
     /**
@@ -21,15 +120,11 @@ public class Ex2Sheet implements Sheet {
      * @return A list of dependencies as String references (e.g., "A1", "B2").
      */
     protected List<String> extractDependencies(SCell cell) {
-        if (cell == null || !SCell.isFormula(cell.getData())) return Collections.emptyList();
-        String formula = cell.getData().substring(1); // Remove '='
-        // Assume dependencies are separated by math operators (+,-,*,/)
-        String[] tokens = formula.split("[^A-Za-z0-9]");
-        List<String> dependencies = new ArrayList<>();
-        for (String token : tokens) {
-            if (token.matches("[A-Za-z]+\\d+")) { // Validate token as a cell reference (e.g., "A1")
-                dependencies.add(token);
-            }
+        if (cell == null || cell.getFormula() == null) return Collections.emptyList();
+        Formula formula = cell.getFormula();
+        List<String> dependencies = new ArrayList<>(formula.getReferenceCount());
+        for (int i = 0; i < formula.getReferenceCount(); i++) {
+            dependencies.add(CellEntry.toCellRef(formula.getReferenceX(i), formula.getReferenceY(i)));
         }
         return dependencies;
     }
@@ -50,231 +145,1229 @@ public class Ex2Sheet implements Sheet {
 
     @Override
     public boolean isIn(int col, int row) {
-        return col >= 0 && col < 26 && row >= 0 && row < 100;
+        return col >= 0 && col < width && row >= 0 && row < height;
     }
 
     @Override
     public int width() {
-        return table.length;
+        return width;
     }
 
     @Override
     public int height() {
-        return table[0].length;
+        return height;
     }
 
     @Override
     public void set(int x, int y, String c) {
-        if (isIn(x, y)) table[x][y] = new SCell(c);
+        if (!isIn(x, y)) return;
+        SCell cell = cells.get(CellAddress.pack(x, y));
+        if (cell == null) {
+            if (c == null || c.isEmpty()) return; // Already empty
+            cell = materialize(x, y);
+        }
+        Formula previous = cell.getFormula();
+        cell.clearDependencies();
+        if (previous != null) ranges.unwatch(cell, previous);
+        cell.setData(c, templates);
+        if (previous != null || cell.getFormula() != null) version++;
+        ranges.update(cell);
+        linkDependencies(cell);
+        recalculate(cell);
+        if (previous != null) {
+            for (int i = 0; i < previous.getReferenceCount(); i++) {
+                release(previous.getReferenceX(i), previous.getReferenceY(i));
+            }
+        }
+        release(x, y);
+    }
+
+    /**
+     * @return the cell stored at (x, y), creating an empty one if there is none.
+     */
+    private SCell materialize(int x, int y) {
+        long key = CellAddress.pack(x, y);
+        SCell cell = cells.get(key);
+        if (cell == null) {
+            cell = new SCell(Ex2Utils.EMPTY_CELL);
+            store(key, cell);
+        }
+        return cell;
+    }
+
+    private void store(long key, SCell cell) {
+        cell.setAddress(key);
+        cells.put(key, cell);
+        version++;
+        int x = CellAddress.x(key), y = CellAddress.y(key);
+        if (x >= columnEnds.length) columnEnds = Arrays.copyOf(columnEnds, Math.max(x + 1, columnEnds.length * 2));
+        columnEnds[x] = Math.max(columnEnds[x], y + 1);
+    }
+
+    /**
+     * Drops every cell of this sheet (before a bulk load).
+     */
+    private void clearAll() {
+        cells.clear();
+        ranges.clear();
+        columnEnds = new int[0];
+        version++;
+    }
+
+    /**
+     * Drops the cell at (x, y) if it is empty and no formula references it any more.
+     */
+    private void release(int x, int y) {
+        long key = CellAddress.pack(x, y);
+        SCell cell = cells.get(key);
+        if (cell != null && cell.isEmpty() && cell.getDependents().isEmpty()) {
+            cells.remove(key);
+            version++;
+        }
+    }
+
+    /**
+     * @return the cell at (x, y), or the shared empty cell if none was stored there.
+     */
+    private SCell cellAt(int x, int y) {
+        SCell cell = cells.get(CellAddress.pack(x, y));
+        return cell == null ? EMPTY : cell;
+    }
+
+    /**
+     * Registers the cells referenced by the formula of the given cell as its dependencies
+     * (and the cell as their dependent), so a change to any of them invalidates its cached value.
+     * A referenced empty position gets a real (empty) cell to hold the edge.
+     * A range is not linked cell by cell: the formula watches it in the range index instead, whose columns
+     * are filled with their cells (see indexColumn) when they are first covered.
+     * The conditional references (in IF branches) are linked too, until the formula is computed and
+     * keeps only the ones it read (see Evaluator.compute).
+     */
+    private void linkDependencies(SCell cell) {
+        Formula formula = cell.getFormula();
+        if (formula == null) return;
+        for (int i = 0; i < formula.getReferenceCount(); i++) {
+            int x = formula.getReferenceX(i), y = formula.getReferenceY(i);
+            if (isIn(x, y)) {
+                cell.addDependency(materialize(x, y));
+            }
+        }
+        for (int i = 0; i < formula.getRangeCount(); i++) {
+            int x1 = formula.getRangeX1(i), y1 = formula.getRangeY1(i);
+            int x2 = formula.getRangeX2(i), y2 = formula.getRangeY2(i);
+            if (!isIn(x1, y1) || !isIn(x2, y2)) continue; // Evaluates to ERR_FORM
+            for (int x = x1; x <= x2; x++) {
+                if (ranges.index(x)) indexColumn(x);
+            }
+            ranges.watch(cell, x1, y1, x2, y2);
+        }
+    }
+
+    /**
+     * Gives the cells of column x to its new tree in the range index. Only the rows up to the last one used in
+     * the column are probed, the tree itself grows as deep as that row.
+     */
+    private void indexColumn(int x) {
+        int end = x < columnEnds.length ? columnEnds[x] : 0;
+        for (int y = 0; y < end; y++) {
+            SCell cell = cells.get(CellAddress.pack(x, y));
+            if (cell != null) ranges.update(cell);
+        }
+    }
+
+    /**
+     * @return the cells whose formulas reference the given cell, or aggregate a range covering it.
+     * The returned collection may be reused by the next call, so it must be consumed first.
+     */
+    private Collection<SCell> dependentsOf(SCell cell) {
+        long address = cell.getAddress();
+        if (address == CellAddress.NONE || !ranges.isWatched(CellAddress.x(address))) return cell.getDependents();
+        dependents.clear();
+        for (SCell dependent : cell.getDependents()) dependents.add(dependent);
+        ranges.addWatchers(CellAddress.x(address), CellAddress.y(address), dependents);
+        return dependents;
+    }
+
+    /**
+     * Recomputes a changed cell and every cell which (transitively) depends on it.
+     * The affected sub-graph is collected through the dependents of each cell and then computed in
+     * topological order, so an edit costs in proportion to the number of affected cells - not to the size of the sheet.
+     */
+    private void recalculate(SCell changed) {
+        computeInOrder(collectAffected(changed));
+        affected.clear();
+    }
+
+    /**
+     * Computes the given cells in topological order (Kahn's algorithm), so each formula is computed exactly once,
+     * after all its inputs. Every dependent of a given cell must be given as well.
+     * The formulas with IF branches are only re-linked once the whole batch is computed, so the links the counts
+     * of pending inputs were taken from do not change during the sort. A taken branch may read a cell of the batch
+     * its formula was not linked to, which is then computed early, as it is read (and not again when it is released).
+     * Cells left over by the sort lie on (or behind) a cycle, computing them marks them as ERR_CYCLE.
+     */
+    private void computeInOrder(List<SCell> batch) {
+        evaluator.holdLinks();
+        for (SCell cell : batch) {
+            for (SCell dependent : dependentsOf(cell)) {
+                dependent.setPendingInputs(dependent.getPendingInputs() + 1);
+            }
+        }
+        ArrayDeque<SCell> ready = work;
+        for (SCell cell : batch) {
+            if (cell.getPendingInputs() == 0) ready.add(cell);
+        }
+        while (!ready.isEmpty()) {
+            SCell cell = ready.poll();
+            if (cell.getFormula() != null && cell.getStatus() == SCell.DIRTY) {
+                evaluator.compute(cell);
+            }
+            for (SCell dependent : dependentsOf(cell)) {
+                dependent.setPendingInputs(dependent.getPendingInputs() - 1);
+                if (dependent.getPendingInputs() == 0) ready.add(dependent);
+            }
+        }
+        for (SCell cell : batch) {
+            cell.setPendingInputs(0);
+            if (cell.getFormula() != null && cell.getStatus() == SCell.DIRTY) {
+                evaluator.compute(cell);
+            }
+        }
+        evaluator.applyLinks();
+    }
+
+    /**
+     * Collects the changed cell and all of its transitive dependents, invalidating them on the way.
+     * Outside of recalculate() no formula is left dirty, so a dirty dependent has already been collected.
+     */
+    private List<SCell> collectAffected(SCell changed) {
+        affected.clear();
+        affected.add(changed);
+        ArrayDeque<SCell> stack = work;
+        for (SCell dependent : dependentsOf(changed)) stack.push(dependent);
+        while (!stack.isEmpty()) {
+            SCell cell = stack.pop();
+            if (cell == changed || cell.getStatus() == SCell.DIRTY) continue;
+            cell.invalidate();
+            ranges.update(cell);
+            affected.add(cell);
+            for (SCell dependent : dependentsOf(cell)) stack.push(dependent);
+        }
+        return affected;
     }
 
     @Override
     public Cell get(int x, int y) {
-        return isIn(x, y) ? table[x][y] : null;
+        return isIn(x, y) ? cellAt(x, y) : null;
     }
 
     @Override
     public Cell get(String entry) {
-        CellEntry cellEntry = new CellEntry(entry);
-        return get(cellEntry.getX(), cellEntry.getY());
+        long address = CellAddress.parse(entry);
+        return address == CellAddress.NONE ? null : get(CellAddress.x(address), CellAddress.y(address));
     }
 
     @Override
     public String value(int x, int y) {
         if (!isIn(x, y)) return null;
-        SCell cell = table[x][y];
-        if (cell == null) return null;
-        return evaluateCellData(cell, new HashSet<>(), CellEntry.toCellRef(x, y));
+        return evaluateCellData(cellAt(x, y));
     }
 
     /**
-     * Evaluates the data of a given cell and converts it into a string.
-     * Performs validation to avoid invalid parsing.
+     * Returns the string presented for a given cell.
+     * Values are kept as doubles, a dirty formula is computed first and the result is only formatted here.
      */
-    private String evaluateCellData(SCell cell, Set<String> visitedCells, String currentCell) {
-        String data = cell.getData();
+    private String evaluateCellData(SCell cell) {
+        if (cell.getStatus() == SCell.DIRTY) {
+            evaluator.compute(cell);
+        }
+        return cell.getEvaluated();
+    }
 
-        // Check if the cell data starts with "="
-        if (data.startsWith("=")) {
-            // Remove the leading "=" for processing
-            String formula = data.substring(1).trim();
+    /**
+     * Like value(x, y), but never computes nor caches anything, so it only reads this sheet.
+     * @return the value of the cell, or null if (x, y) is outside the sheet or its formula is not computed.
+     */
+    public String peekValue(int x, int y) {
+        return isIn(x, y) ? cellAt(x, y).peekEvaluated() : null;
+    }
 
-            // Resolve references and validate the formula
-            String resolvedFormula = replaceReferencesInFormula(formula, visitedCells, currentCell);
+    /**
+     * Computes formulas by walking their compiled expression trees,
+     * resolving references to the cached double values of the cells.
+     * A reference to a text, empty, malformed or out of table cell is an ERR_FORM,
+     * a reference to a cell which is currently being evaluated is an ERR_CYCLE.
+     * The first error found is kept in {@link #error} and stops any further evaluation (and tracking) of references.
+     * Ranges are aggregated by the range index, unless some of their cells are not computed yet.
+     * A formula with IF branches is re-linked once it is computed: to its unconditional references and to the
+     * references the evaluation actually read, so a change to a cell of an untaken branch does not recompute it.
+     * The re-linking waits for the outermost computation (or for applyLinks, see computeInOrder), and then releases
+     * the empty cells no formula references any more.
+     */
+    private final class Evaluator implements Formula.Env {
+        // false: runs concurrently with other evaluators, so it changes neither the range index nor the graph;
+        // the caller updates the index, and the graph does not change as the inputs of the cells did not.
+        private final boolean sequential;
+        private int error;
+        private List<SCell> reads; // The cells read by the cell being computed, if its reads are tracked
+        private int holds;         // Computations (and sorts) in progress, the re-linking waits for all of them
+        private final List<SCell> relinked = new ArrayList<>();     // Cells to re-link, as of their reads below
+        private final List<List<SCell>> relinkedReads = new ArrayList<>();
+
+        Evaluator(boolean sequential) {
+            this.sequential = sequential;
+        }
 
-            // Check invalid or unresolved formulas
-            if (Ex2Utils.ERR_FORM.equals(resolvedFormula) || Ex2Utils.ERR_CYCLE.equals(resolvedFormula)) {
-                return resolvedFormula; // Propagate the error
+        /** Computes the formula of the given cell and caches its result (value and status) in the cell. */
+        void compute(SCell cell) {
+            holdLinks();
+            int outerError = error;
+            List<SCell> outerReads = reads;
+            error = 0;
+            Formula formula = cell.getFormula();
+            reads = sequential && formula.hasConditionalReferences() ? new ArrayList<>() : null;
+            if (reads != null) {
+                relinked.add(cell);
+                relinkedReads.add(reads);
             }
+            cell.markEvaluating();
+            double result = formula.evaluate(this);
+            cell.setValue(result, error == 0 ? SCell.VALID : error);
+            if (sequential) ranges.update(cell);
+            error = outerError;
+            reads = outerReads;
+            applyLinks();
+        }
 
-            // Final validation of resolved formula
-            if (!isValidExpression(resolvedFormula)) {
-                return Ex2Utils.ERR_FORM;
+        /** Defers the re-linking of the computed formulas until the matching applyLinks. */
+        void holdLinks() {
+            holds++;
+        }
+
+        /**
+         * Re-links the computed formulas with IF branches once no computation holds the links any more, and then
+         * releases the cells they stopped referencing (so a cell read by another formula meanwhile is kept).
+         */
+        void applyLinks() {
+            if (--holds > 0 || relinked.isEmpty()) return;
+            List<SCell> dropped = new ArrayList<>();
+            for (int c = 0; c < relinked.size(); c++) {
+                SCell cell = relinked.get(c);
+                Formula formula = cell.getFormula();
+                dropped.addAll(cell.getDependencies());
+                cell.clearDependencies();
+                for (int i = 0; i < formula.getReferenceCount(); i++) {
+                    int x = formula.getReferenceX(i), y = formula.getReferenceY(i);
+                    if (!formula.isConditionalReference(i) && isIn(x, y)) cell.addDependency(materialize(x, y));
+                }
+                for (SCell input : relinkedReads.get(c)) cell.addDependency(input);
+            }
+            relinked.clear();
+            relinkedReads.clear();
+            for (SCell cell : dropped) {
+                release(CellAddress.x(cell.getAddress()), CellAddress.y(cell.getAddress()));
             }
+        }
 
-            // Try to evaluate the valid formula
-            try {
-                double result = evalExpression(resolvedFormula);
-                return Double.toString(result);
-            } catch (IllegalArgumentException e) {
-                return Ex2Utils.ERR_FORM; // Handle arithmetic evaluation errors
+        @Override
+        public double valueAt(int x, int y) {
+            if (error != 0) return Double.NaN;
+            if (!isIn(x, y)) {
+                error = Ex2Utils.ERR_FORM_FORMAT;
+                return Double.NaN;
+            }
+            SCell cell;
+            if (reads != null) {
+                cell = materialize(x, y); // Holds the link, even to an empty position
+                reads.add(cell);
+            } else {
+                cell = cellAt(x, y);
+            }
+            int status = cell.getStatus();
+            if (status == SCell.DIRTY) {
+                compute(cell);
+                status = cell.getStatus();
             }
+            if (status == SCell.VALID) {
+                return cell.getValue();
+            }
+            // A text, empty or malformed cell (ERR_FORM), an error, or a cell being evaluated (a cycle)
+            error = status == SCell.EVALUATING ? Ex2Utils.ERR_CYCLE_FORM : status;
+            return Double.NaN;
         }
-        if (SCell.isNumber(data)) {
-            return String.valueOf(Double.parseDouble(data));
+
+        @Override
+        public double aggregate(int function, int x1, int y1, int x2, int y2) {
+            if (error != 0) return Double.NaN;
+            if (!isIn(x1, y1) || !isIn(x2, y2)) {
+                error = Ex2Utils.ERR_FORM_FORMAT;
+                return Double.NaN;
+            }
+            int flags = ranges.flags(x1, y1, x2, y2);
+            if (flags < 0 || (flags & RangeIndex.PENDING) != 0) {
+                return scan(function, x1, y1, x2, y2);
+            }
+            if (flags != 0) {
+                error = (flags & RangeIndex.CYCLE) != 0 ? Ex2Utils.ERR_CYCLE_FORM : Ex2Utils.ERR_FORM_FORMAT;
+                return Double.NaN;
+            }
+            return ranges.query(function, x1, y1, x2, y2);
         }
 
-        // If data is not a formula, return as-is
-        return data;
+        /**
+         * Aggregates a range cell by cell, computing its dirty cells first: only used when a range is read
+         * before all its cells were computed, i.e., on a cycle through the range.
+         */
+        private double scan(int function, int x1, int y1, int x2, int y2) {
+            double result = Formula.identity(function);
+            for (int x = x1; x <= x2; x++) {
+                for (int y = y1; y <= y2; y++) {
+                    SCell cell = cells.get(CellAddress.pack(x, y));
+                    if (cell == null) continue;
+                    if (cell.getStatus() == SCell.DIRTY) compute(cell);
+                    int status = cell.getStatus();
+                    if (status == SCell.VALID) {
+                        result = Formula.combine(function, result, function == Formula.COUNT ? 1 : cell.getValue());
+                    } else if (status == SCell.EVALUATING || cell.isFormulaText()) {
+                        error = status == SCell.EVALUATING ? Ex2Utils.ERR_CYCLE_FORM : status;
+                        return Double.NaN;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public String eval(int x, int y) {
+        return value(x, y); // Alias for value() in 1 cell
+    }
+
+    @Override
+    public void eval() {
+        // Nothing to do: set() recalculates every affected cell, so no formula is ever left dirty.
     }
 
-    private String replaceReferencesInFormula(String formula, Set<String> visitedCells, String currentCell) {
-        StringBuilder resolvedFormula = new StringBuilder();
+    /**
+     * Computes the dependency depth of every cell in a single pass of Kahn's algorithm over an int-indexed
+     * adjacency structure built from the linked dependencies of the cells (for a formula with IF branches, the
+     * references its last evaluation read). Only the populated cells are numbered (referenced
+     * cells are always populated, see linkDependencies), so the work is O(populated cells + references)
+     * however large the sheet is; empty positions simply keep a depth of 0. A formula aggregating a range
+     * depends on the populated cells of the range, found through the watchers of the range index.
+     * Cells never released by the sort lie on a cycle, or depend on one, and get a depth of -1.
+     */
+    @Override
+    public int[][] depth() {
+        int capacity = cells.capacity(), n = 0;
+        int[] ordinal = new int[capacity];  // slot of the map -> index of the populated cell
+        int[] slotOf = new int[cells.size()];
+        for (int s = 0; s < capacity; s++) {
+            if (cells.cellAt(s) != null) {
+                ordinal[s] = n;
+                slotOf[n++] = s;
+            }
+        }
+        int[] pending = new int[n];    // number of references (inputs) not yet resolved, per cell
+        int[] start = new int[n + 1];  // reverse adjacency (CSR): dependents of cell j are in [start[j], start[j+1])
+        for (int index = 0; index < n; index++) {
+            for (SCell input : cells.cellAt(slotOf[index]).getDependencies()) {
+                pending[index]++;
+                start[ordinal[cells.slotOf(input.getAddress())] + 1]++;
+            }
+        }
+        List<SCell> watchers = new ArrayList<>();
+        for (int index = 0; index < n; index++) {
+            watchersOf(slotOf[index], watchers);
+            for (SCell watcher : watchers) {
+                pending[ordinal[cells.slotOf(watcher.getAddress())]]++;
+                start[index + 1]++;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            start[j + 1] += start[j];
+        }
+        int[] dependents = new int[start[n]];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int index = 0; index < n; index++) {
+            for (SCell input : cells.cellAt(slotOf[index]).getDependencies()) {
+                dependents[fill[ordinal[cells.slotOf(input.getAddress())]]++] = index;
+            }
+        }
+        for (int index = 0; index < n; index++) {
+            watchersOf(slotOf[index], watchers);
+            for (SCell watcher : watchers) {
+                dependents[fill[index]++] = ordinal[cells.slotOf(watcher.getAddress())];
+            }
+        }
 
-        // Tokenize the formula into manageable parts
-        String[] tokens = formula.split("(\\s+|(?=[+\\-*/()])|(?<=[+\\-*/()]))");
-        for (String token : tokens) {
-            token = token.trim();
+        int[] level = new int[n];
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int j = 0; j < n; j++) {
+            if (pending[j] == 0) queue[tail++] = j;
+        }
+        while (head < tail) {
+            int j = queue[head++];
+            for (int k = start[j]; k < start[j + 1]; k++) {
+                int i = dependents[k];
+                level[i] = Math.max(level[i], level[j] + 1);
+                if (--pending[i] == 0) queue[tail++] = i;
+            }
+        }
 
-            // Check for valid cell references
-            if (token.matches("[A-Za-z]+\\d+")) {
-                int[] indices = CellReferenceResolver.resolveCellReference(token.toUpperCase());
-                int refColumn = indices[0];
-                int refRow = indices[1];
+        int[][] depths = new int[width()][height()];
+        for (int index = 0; index < n; index++) {
+            long key = cells.keyAt(slotOf[index]);
+            depths[CellAddress.x(key)][CellAddress.y(key)] = pending[index] == 0 ? level[index] : Ex2Utils.ERR;
+        }
+        return depths;
+    }
 
-                String cellRef = CellEntry.toCellRef(refColumn, refRow);
+    /**
+     * Replaces the content of the given list with the formulas aggregating a range which covers the cell of a slot.
+     */
+    private void watchersOf(int slot, List<SCell> watchers) {
+        watchers.clear();
+        long key = cells.keyAt(slot);
+        ranges.addWatchers(CellAddress.x(key), CellAddress.y(key), watchers);
+    }
 
-                // Circular reference check
-                if (cellRef.equals(currentCell) || visitedCells.contains(cellRef)) {
-                    return Ex2Utils.ERR_CYCLE;
+    @Override
+    public void save(String fileName) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, StandardCharsets.UTF_8))) {
+            writer.write("I2CS ArielU: SpreadSheet (Ex2) assignment\n");
+            for (long key : cells.sortedKeys()) {
+                SCell cell = cells.get(key);
+                if (!cell.isEmpty()) {
+                    writer.write(CellAddress.x(key) + "," + CellAddress.y(key) + "," + cell.getData() + "\n");
                 }
+            }
+        }
+    }
 
-                visitedCells.add(cellRef);
-                SCell referencedCell = table[refColumn][refRow];
-                String evaluatedValue = evaluateCellData(referencedCell, visitedCells, cellRef);
-                visitedCells.remove(cellRef);
+    /**
+     * Replaces the content of this sheet with the content of the given file (as written by save).
+     * The file is read in bulk: lines are scanned in place in a char buffer, and only once the whole file was
+     * read are its cells inserted (without maintaining the dependency graph), the graph built and every formula
+     * computed exactly once. Malformed lines are ignored.
+     * If the file can not be read, this sheet is left unchanged. Files are read (and written by save) as UTF-8.
+     */
+    @Override
+    public void load(String fileName) throws IOException {
+        LoadedCells loaded = new LoadedCells();
+        try (Reader reader = new FileReader(fileName, StandardCharsets.UTF_8)) {
+            LineScanner scanner = new LineScanner(reader);
+            scanner.nextLine(); // Skip header
+            while (scanner.nextLine()) {
+                loadLine(scanner.buffer, scanner.lineStart, scanner.lineEnd, loaded);
+            }
+        }
+        replaceWith(loaded);
+    }
 
-                if (Ex2Utils.ERR_CYCLE.equals(evaluatedValue) || Ex2Utils.ERR_FORM.equals(evaluatedValue)) {
-                    return evaluatedValue;
-                }
+    /**
+     * Adds the cell described by a saved line, "x,y,content", found in line[from, to), to the loaded cells.
+     */
+    private void loadLine(char[] line, int from, int to, LoadedCells loaded) {
+        int first = indexOf(line, ',', from, to);
+        int second = indexOf(line, ',', first + 1, to);
+        if (first < 0 || second < 0 || second + 1 == to) return;
+        int x = parseIndex(line, from, first), y = parseIndex(line, first + 1, second);
+        if (!isIn(x, y)) return;
+        loaded.add(CellAddress.pack(x, y), new String(line, second + 1, to - second - 1));
+    }
 
-                resolvedFormula.append(evaluatedValue).append(" ");
+    /**
+     * Replaces the content of this sheet with the given cells (a later cell wins over an earlier one at the same
+     * position), then links and computes it.
+     */
+    private void replaceWith(LoadedCells loaded) {
+        clearAll();
+        for (int i = 0; i < loaded.count; i++) {
+            long key = loaded.keys[i];
+            store(key, new SCell(loaded.texts[i], key, templates));
+        }
+        rebuild();
+    }
+
+    /**
+     * The cells read from a file, in file order, before they replace the content of the sheet.
+     */
+    private static final class LoadedCells {
+        private long[] keys = new long[64];
+        private String[] texts = new String[64];
+        private int count;
+
+        void add(long key, String text) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                texts = Arrays.copyOf(texts, count * 2);
             }
-            // Flag invalid tokens (e.g., standalone text like "bus")
-            else if (token.matches("[A-Za-z]+")) {
-                return Ex2Utils.ERR_FORM;
+            keys[count] = key;
+            texts[count] = text;
+            count++;
+        }
+    }
+
+    /**
+     * Links every formula of this sheet to the cells it references and computes the whole sheet once.
+     */
+    private void rebuild() {
+        linkAll();
+        List<SCell> all = new ArrayList<>(cells.size());
+        for (int s = 0; s < cells.capacity(); s++) {
+            if (cells.cellAt(s) != null) all.add(cells.cellAt(s));
+        }
+        computeInOrder(all);
+    }
+
+    /**
+     * Links every formula of this sheet to the cells it references (after cells were inserted in bulk).
+     */
+    private void linkAll() {
+        List<SCell> formulas = new ArrayList<>();
+        for (int s = 0; s < cells.capacity(); s++) {
+            SCell cell = cells.cellAt(s);
+            if (cell != null && cell.getFormula() != null) formulas.add(cell);
+        }
+        for (SCell cell : formulas) {
+            linkDependencies(cell); // May add (empty) referenced cells to the map
+        }
+    }
+
+    // ---------------- Binary snapshots ----------------
+
+    private static final int SNAPSHOT_MAGIC = 0x45583242; // "EX2B"
+    private static final int SNAPSHOT_VERSION = 1;
+    // Cell tags: a number written as a long or as a double (its text is recreated exactly),
+    // a formula (dictionary index and its computed result) or any other text (dictionary index).
+    private static final int TAG_LONG = 0, TAG_DOUBLE = 1, TAG_FORMULA = 2, TAG_TEXT = 3;
+
+    /**
+     * Saves a binary snapshot of this sheet: a header, a dictionary of the distinct formula and text strings,
+     * then the populated cells in column by column order with delta encoded varint coordinates.
+     * Numbers are written as binary values and formulas together with their computed results, so loadBinary
+     * neither parses numbers nor evaluates formulas. Holds exactly what the text format holds.
+     */
+    public void saveBinary(String fileName) throws IOException {
+        try (OutputStream out = new FileOutputStream(fileName)) {
+            saveBinary(out);
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of this sheet (see saveBinary(String)) to the given stream, without closing it.
+     */
+    public void saveBinary(OutputStream stream) throws IOException {
+        long[] keys = cells.sortedKeys();
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int count = 0;
+        for (long key : keys) {
+            SCell cell = cells.get(key);
+            if (cell.isEmpty()) continue;
+            count++;
+            if (numberTag(cell) < 0) dictionary.putIfAbsent(cell.getData(), dictionary.size());
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeByte(SNAPSHOT_VERSION);
+        writeVarint(out, width);
+        writeVarint(out, height);
+        writeVarint(out, dictionary.size());
+        for (String text : dictionary.keySet()) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarint(out, count);
+        int previousX = 0, previousY = 0;
+        for (long key : keys) {
+            SCell cell = cells.get(key);
+            if (cell.isEmpty()) continue;
+            int x = CellAddress.x(key), y = CellAddress.y(key);
+            // Same column: the row is a delta from the previous row, otherwise it is absolute
+            writeVarint(out, x - previousX);
+            writeVarint(out, x == previousX ? y - previousY : y);
+            previousX = x;
+            previousY = y;
+            int tag = numberTag(cell);
+            if (tag == TAG_LONG) {
+                out.writeByte(TAG_LONG);
+                long n = (long) cell.getValue();
+                writeVarlong(out, (n << 1) ^ (n >> 63)); // Zig-zag, small negative numbers stay short
+            } else if (tag == TAG_DOUBLE) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(cell.getValue());
+            } else if (cell.getFormula() != null) {
+                out.writeByte(TAG_FORMULA);
+                writeVarint(out, dictionary.get(cell.getData()));
+                if (cell.getStatus() == SCell.DIRTY) evaluator.compute(cell);
+                out.writeByte(cell.getStatus());
+                if (cell.getStatus() == SCell.VALID) out.writeDouble(cell.getValue());
+            } else {
+                out.writeByte(TAG_TEXT);
+                writeVarint(out, dictionary.get(cell.getData()));
             }
-            // Append valid operators and constants
-            else {
-                resolvedFormula.append(token).append(" ");
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the content of this sheet with a snapshot written by saveBinary.
+     * The computed results of the formulas are taken from the snapshot (if it has the shape of this sheet),
+     * so only the dependency graph is built.
+     * The whole snapshot is decoded before it replaces the content of this sheet, which is left unchanged if
+     * the snapshot can not be read.
+     * @throws IOException if the file can not be read or is not a snapshot.
+     */
+    public void loadBinary(String fileName) throws IOException {
+        try (InputStream in = new FileInputStream(fileName)) {
+            loadBinary(in);
+        }
+    }
+
+    /**
+     * Replaces the content of this sheet with a snapshot read from the given stream (see loadBinary(String)).
+     */
+    public void loadBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readUnsignedByte() != SNAPSHOT_VERSION) {
+            throw new IOException("Not an Ex2 binary snapshot");
+        }
+        boolean sameShape = readVarint(in) == width & readVarint(in) == height;
+        String[] dictionary = new String[readVarint(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] bytes = new byte[readVarint(in)];
+            in.readFully(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int count = readVarint(in);
+        if (count < 0) throw new IOException("Corrupted snapshot, " + count + " cells");
+        long[] keys = new long[Math.min(count, 1 << 16)];
+        SCell[] loaded = new SCell[keys.length];
+        int stored = 0;
+        int x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            int dx = readVarint(in);
+            y = dx == 0 ? y + readVarint(in) : readVarint(in);
+            x += dx;
+            SCell cell;
+            long key = CellAddress.pack(x, y);
+            int tag = in.readUnsignedByte();
+            if (tag == TAG_LONG) {
+                long z = readVarlong(in);
+                long n = (z >>> 1) ^ -(z & 1);
+                cell = SCell.number(Long.toString(n), n);
+            } else if (tag == TAG_DOUBLE) {
+                double value = in.readDouble();
+                cell = SCell.number(Double.toString(value), value);
+            } else if (tag == TAG_FORMULA) {
+                cell = new SCell(dictionary[readVarint(in)], key, templates);
+                int status = in.readByte();
+                cell.setValue(status == SCell.VALID ? in.readDouble() : 0, status);
+            } else if (tag == TAG_TEXT) {
+                cell = new SCell(dictionary[readVarint(in)], key, templates);
+            } else {
+                throw new IOException("Corrupted snapshot, unknown cell tag " + tag);
             }
+            if (!isIn(x, y)) continue;
+            if (stored == keys.length) {
+                keys = Arrays.copyOf(keys, stored * 2);
+                loaded = Arrays.copyOf(loaded, stored * 2);
+            }
+            keys[stored] = key;
+            loaded[stored++] = cell;
+        }
+        clearAll();
+        for (int i = 0; i < stored; i++) {
+            store(keys[i], loaded[i]);
+        }
+        if (sameShape) {
+            linkAll();
+        } else {
+            rebuild(); // References may now point outside of the sheet (or inside it), compute again
         }
-        return resolvedFormula.toString().trim();
     }
 
+    /**
+     * @return TAG_LONG or TAG_DOUBLE if the cell is a number whose text is recreated exactly from its value, else -1.
+     */
+    private static int numberTag(SCell cell) {
+        if (cell.getFormula() != null || cell.getStatus() != SCell.VALID) return -1;
+        double value = cell.getValue();
+        long n = (long) value;
+        if (n == value && Long.toString(n).equals(cell.getData())) return TAG_LONG;
+        if (Double.toString(value).equals(cell.getData())) return TAG_DOUBLE;
+        return -1;
+    }
 
-    private boolean isValidExpression(String formula) {
-        // Allow only numbers, operators, parentheses, and valid cell references
-        // Disallow pure strings like "bus"
-        return formula.matches("([A-Za-z]+\\d+|[0-9+\\-*/().\\s])*");
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        writeVarlong(out, value & 0xFFFFFFFFL);
     }
 
-    private double evalExpression(String expression) {
-        try {
-            return new ExpressionEvaluator().evaluate(expression);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to evaluate expression: " + expression, e);
+    private static void writeVarlong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
         }
+        out.writeByte((int) value);
     }
 
-    @Override
-    public String eval(int x, int y) {
-        return value(x, y); // Alias for value() in 1 cell
+    private static int readVarint(DataInput in) throws IOException {
+        return (int) readVarlong(in);
     }
 
-    @Override
-    public void eval() {
-        for (int x = 0; x < width(); x++) {
-            for (int y = 0; y < height(); y++) {
-                SCell cell = table[x][y];
-                if (cell != null) {
-                    cell.evaluate(null /* Pass a map of dependencies if available */);
+    private static long readVarlong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // ---------------- Memory mapped loading ----------------
+
+    private static final long MAPPED_REGION = 1L << 30;    // Bytes mapped at once (a mapping is limited to 2GB)
+    private static final int MIN_CHUNK_BYTES = 1 << 16;    // Smaller chunks are not worth a task of their own
+
+    /**
+     * Replaces the content of this sheet with the content of the given text file (as written by save),
+     * like load, but scans the file in place through a memory mapping: coordinates are decoded directly
+     * from the mapped bytes and only the text of each cell is copied out (as UTF-8).
+     * The file is mapped in regions of up to 1GB cut at line breaks; if an evaluation pool was set
+     * (see setEvaluationPool) each region is split into chunks which are parsed concurrently and then merged.
+     * As with load, the sheet is only replaced once the whole file was read.
+     */
+    public void loadMapped(String fileName) throws IOException {
+        LoadedCells loaded = new LoadedCells();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            boolean header = true;
+            while (position < size) {
+                long length = Math.min(MAPPED_REGION, size - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (position + length < size) { // Cut the region after its last complete line
+                    while (end > 0 && region.get(end - 1) != '\n') end--;
+                    if (end == 0) throw new IOException("Line longer than " + MAPPED_REGION + " bytes: " + fileName);
+                }
+                int start = 0;
+                if (header) { // Skip header
+                    while (start < end && region.get(start) != '\n') start++;
+                    start++;
+                    header = false;
                 }
+                loadRegion(region, start, end, loaded);
+                position += end;
             }
         }
+        replaceWith(loaded);
     }
 
-    @Override
-    public int[][] depth() {
-        int[][] depths = new int[width()][height()];
-        for (int x = 0; x < width(); x++) {
-            for (int y = 0; y < height(); y++) {
-                depths[x][y] = getDepth(x, y, new HashSet<>());
-            }
+    private void loadRegion(MappedByteBuffer region, int from, int to, LoadedCells loaded) {
+        if (from >= to) return;
+        int chunks = pool == null ? 1 : (int) Math.min(pool.getParallelism() * 4L, (to - from) / MIN_CHUNK_BYTES);
+        if (chunks <= 1) {
+            merge(new MappedChunk(region, from, to).parse(), loaded);
+            return;
         }
-        return depths;
+        List<MappedChunk> tasks = new ArrayList<>(chunks);
+        int start = from;
+        for (int i = 1; i <= chunks && start < to; i++) {
+            int end = i == chunks ? to : Math.max(start, from + (int) ((long) (to - from) * i / chunks));
+            while (end < to && region.get(end - 1) != '\n') end++; // Chunks end at a line break
+            tasks.add(new MappedChunk(region, start, end));
+            start = end;
+        }
+        for (MappedChunk task : tasks) pool.execute(task);
+        for (MappedChunk task : tasks) merge(task.join(), loaded); // In file order, so a later line wins as in load
     }
 
-    private int getDepth(int x, int y, Set<String> visited) {
-        if (!isIn(x, y)) return 0;
-        SCell cell = table[x][y];
-        if (cell == null || !SCell.isFormula(cell.getData())) return 0;
-        String cellRef = CellEntry.toCellRef(x, y);
-        if (visited.contains(cellRef)) return -1; // Circular dependency
-        visited.add(cellRef);
-        int maxDepth = 0;
-        for (String dep : extractDependencies(cell)) {
-            CellEntry entry = new CellEntry(dep);
-            maxDepth = Math.max(maxDepth, getDepth(entry.getX(), entry.getY(), visited));
+    private void merge(MappedChunk chunk, LoadedCells loaded) {
+        LoadedCells parsed = chunk.parsed;
+        for (int i = 0; i < parsed.count; i++) {
+            long key = parsed.keys[i];
+            if (isIn(CellAddress.x(key), CellAddress.y(key))) loaded.add(key, parsed.texts[i]);
         }
-        return maxDepth + 1;
     }
 
-    @Override
-    public void save(String fileName) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("I2CS ArielU: SpreadSheet (Ex2) assignment\n");
-            for (int x = 0; x < width(); x++) {
-                for (int y = 0; y < height(); y++) {
-                    SCell cell = table[x][y];
-                    if (cell != null) {
-                        writer.write(x + "," + y + "," + cell.getData() + "\n");
+    /**
+     * Parses the lines "x,y,content" found in bytes [from, to) of a mapped region.
+     * Runs on any thread: it only reads its own (duplicated) view of the region and fills its own arrays.
+     */
+    private static final class MappedChunk extends RecursiveTask<MappedChunk> {
+        private static final long serialVersionUID = 1L;
+        private final java.nio.ByteBuffer bytes;
+        private final int from, to;
+        private final LoadedCells parsed = new LoadedCells();
+
+        MappedChunk(MappedByteBuffer region, int from, int to) {
+            this.bytes = region.duplicate(); // Absolute reads only, but keep chunks fully independent
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected MappedChunk compute() {
+            return parse();
+        }
+
+        MappedChunk parse() {
+            byte[] text = new byte[256];
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && bytes.get(lineEnd) != '\n') lineEnd++;
+                int next = lineEnd + 1;
+                if (lineEnd > lineStart && bytes.get(lineEnd - 1) == '\r') lineEnd--;
+                int first = indexOf(lineStart, lineEnd);
+                int second = first < 0 ? -1 : indexOf(first + 1, lineEnd);
+                if (second >= 0 && second + 1 < lineEnd) {
+                    int x = parseIndex(lineStart, first), y = parseIndex(first + 1, second);
+                    if (x >= 0 && y >= 0) {
+                        int length = lineEnd - second - 1;
+                        if (text.length < length) text = new byte[length];
+                        bytes.get(second + 1, text, 0, length);
+                        parsed.add(CellAddress.pack(x, y), new String(text, 0, length, StandardCharsets.UTF_8));
                     }
                 }
+                lineStart = next;
             }
+            return this;
+        }
+
+        private int indexOf(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes.get(i) == ',') return i;
+            }
+            return -1;
+        }
+
+        private int parseIndex(int from, int to) {
+            if (from >= to) return -1;
+            long n = 0;
+            for (int i = from; i < to; i++) {
+                int c = bytes.get(i);
+                if (c < '0' || c > '9') return -1;
+                n = n * 10 + (c - '0');
+                if (n > Integer.MAX_VALUE) return -1;
+            }
+            return (int) n;
         }
     }
 
-    @Override
-    public void load(String fileName) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            // Skip header
-            reader.readLine();
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 3);
-                if (parts.length < 3) continue; // Ignore malformed lines
-                int x = Integer.parseInt(parts[0]);
-                int y = Integer.parseInt(parts[1]);
-                String content = parts[2];
-                set(x, y, content);
+    private static int indexOf(char[] chars, char c, int from, int to) {
+        for (int i = Math.max(from, 0); i < to; i++) {
+            if (chars[i] == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the non negative integer written in chars[from, to), or -1 if it is not one.
+     */
+    private static int parseIndex(char[] chars, int from, int to) {
+        if (from >= to) return -1;
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+            if (n > Integer.MAX_VALUE) return -1;
+        }
+        return (int) n;
+    }
+
+    /**
+     * Hands out the lines of a Reader in place: each line is buffer[lineStart, lineEnd), without the line break.
+     * The buffer is refilled (and grown for very long lines) as needed, so no String is created per line.
+     */
+    private static final class LineScanner {
+        private final Reader reader;
+        private char[] buffer = new char[1 << 16];
+        private int position, limit, lineStart, lineEnd;
+        private boolean eof;
+
+        LineScanner(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Advances to the next line.
+         * @return false if there are no more lines.
+         */
+        boolean nextLine() throws IOException {
+            int scanned = position;
+            while (true) {
+                while (scanned < limit && buffer[scanned] != '\n') scanned++;
+                if (scanned < limit || eof) break;
+                scanned -= position;
+                fill();
+                scanned += position;
             }
+            if (position == limit && eof) return false;
+            lineStart = position;
+            lineEnd = scanned;
+            position = scanned < limit ? scanned + 1 : limit;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') lineEnd--;
+            return true;
+        }
+
+        /** Moves the unread characters to the start of the buffer (growing it if it is full) and reads more. */
+        private void fill() throws IOException {
+            int remaining = limit - position;
+            if (remaining == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+            }
+            position = 0;
+            limit = remaining;
+            int n = reader.read(buffer, limit, buffer.length - limit);
+            if (n < 0) eof = true;
+            else limit += n;
         }
     }
 
+    /**
+     * Recomputes all the formulas of this sheet, level by level according to the given depths.
+     * The cells are bucketed by depth once; cells of the same depth never depend on each other, so if an
+     * evaluation pool was set (see setEvaluationPool) each level is computed concurrently on it,
+     * with a barrier between levels. Cells of depth -1 (cycles) are computed last, one by one.
+     * The runs of a level, consecutive rows of a column sharing a formula template (e.g., filled down), are
+     * computed column-wise first, see computeRun.
+     * @param dd the depths of the cells of this sheet, as computed by depth().
+     */
     @Override
     public void evaluate(int[][] dd) {
-        for (int depth = 0; depth <= getMaxDepth(dd); depth++) {
-            for (int x = 0; x < width(); x++) {
-                for (int y = 0; y < height(); y++) {
-                    if (dd[x][y] == depth) {
-                        eval(x, y); // Evaluate the cell at the current depth
-                    }
+        int maxDepth = getMaxDepth(dd);
+        int[] start = new int[maxDepth + 2]; // cells of depth d are in levels[start[d] .. start[d+1])
+        List<SCell> cyclic = new ArrayList<>();
+        for (int s = 0; s < cells.capacity(); s++) {
+            SCell cell = cells.cellAt(s);
+            if (cell == null || cell.getFormula() == null) continue;
+            int d = dd[CellAddress.x(cells.keyAt(s))][CellAddress.y(cells.keyAt(s))];
+            cell.invalidate();
+            ranges.update(cell);
+            if (d < 0) cyclic.add(cell);
+            else start[d + 1]++;
+        }
+        for (int d = 0; d <= maxDepth; d++) {
+            start[d + 1] += start[d];
+        }
+        SCell[] levels = new SCell[start[maxDepth + 1]];
+        int[] fill = Arrays.copyOf(start, maxDepth + 1);
+        for (int s = 0; s < cells.capacity(); s++) {
+            SCell cell = cells.cellAt(s);
+            if (cell == null || cell.getFormula() == null) continue;
+            int d = dd[CellAddress.x(cells.keyAt(s))][CellAddress.y(cells.keyAt(s))];
+            if (d >= 0) levels[fill[d]++] = cell;
+        }
+
+        if (runsVersion != version) {
+            runs = findRuns();
+            runsVersion = version;
+        }
+        Run[] byDepth = runsByDepth(dd);
+
+        for (int d = 0, r = 0; d <= maxDepth; d++) {
+            int from = start[d], to = start[d + 1];
+            if (r < byDepth.length && byDepth[r].depth == d) {
+                while (r < byDepth.length && byDepth[r].depth == d) computeRun(byDepth[r++]);
+                to = from;
+                for (int i = from; i < start[d + 1]; i++) {
+                    if (levels[i].getStatus() == SCell.DIRTY) levels[to++] = levels[i];
+                }
+            }
+            if (pool != null && to - from > PARALLEL_THRESHOLD) {
+                pool.invoke(new LevelTask(levels, from, to)); // returns once the whole level is computed
+                for (int i = from; i < to; i++) ranges.update(levels[i]);
+            } else {
+                for (int i = from; i < to; i++) evaluator.compute(levels[i]);
+            }
+        }
+        for (SCell cell : cyclic) {
+            if (cell.getStatus() == SCell.DIRTY) evaluator.compute(cell);
+        }
+    }
+
+    /**
+     * Finds the runs of this sheet: at least MIN_RUN consecutive rows of a column whose formulas are the same
+     * columnar template (see Formula.isColumnar), e.g., a column filled down. The positions of the candidates are
+     * sorted as primitive keys (column by column, row by row), so a run is a sequence of consecutive keys.
+     * The cells of a run and the cells its rows reference are kept in arrays, so computing it looks no cell up;
+     * the runs are found again once cells were added or dropped, or formulas changed.
+     */
+    private Run[] findRuns() {
+        long[] keys = new long[cells.size()];
+        int n = 0;
+        for (int s = 0; s < cells.capacity(); s++) {
+            SCell cell = cells.cellAt(s);
+            if (cell != null && cell.getFormula() != null && cell.getFormula().isColumnar()) keys[n++] = cells.keyAt(s);
+        }
+        Arrays.sort(keys, 0, n);
+        List<Run> found = new ArrayList<>();
+        for (int first = 0, end; first < n; first = end) {
+            Formula formula = cells.get(keys[first]).getFormula();
+            end = first + 1;
+            while (end < n && keys[end] == keys[end - 1] + 1
+                    && formula.sharesTemplate(cells.get(keys[end]).getFormula())) {
+                end++;
+            }
+            if (end - first >= MIN_RUN) found.add(new Run(keys, first, end));
+        }
+        return found.toArray(new Run[0]);
+    }
+
+    /**
+     * @return the runs whose rows all have the same depth (so they may be computed together), by ascending depth.
+     */
+    private Run[] runsByDepth(int[][] dd) {
+        List<Run> uniform = new ArrayList<>();
+        for (Run run : runs) {
+            int[] column = dd[run.x];
+            run.depth = column[run.y];
+            for (int j = 1; j < run.cells.length && run.depth >= 0; j++) {
+                if (column[run.y + j] != run.depth) run.depth = -1;
+            }
+            if (run.depth >= 0) uniform.add(run);
+        }
+        uniform.sort(Comparator.comparingInt(run -> run.depth));
+        return uniform.toArray(new Run[0]);
+    }
+
+    /**
+     * Computes a run whose inputs were computed by the previous levels, in chunks of RUN_CHUNK rows
+     * (concurrently, if an evaluation pool was set).
+     */
+    private void computeRun(Run run) {
+        int n = run.cells.length;
+        if (pool != null && n > RUN_CHUNK) {
+            pool.invoke(new RunTask(run, 0, n));
+        } else {
+            for (int c = 0; c < n; c += RUN_CHUNK) computeRun(run, c, Math.min(c + RUN_CHUNK, n), evaluator);
+        }
+        for (SCell cell : run.cells) ranges.update(cell);
+    }
+
+    /**
+     * Computes the rows [from, to) of a run: the values of each reference are gathered in a column, then the
+     * template computes every row at once, one tight loop over the columns per node of its tree (see
+     * Formula.evaluateColumn) instead of one walk of the tree per cell. A row whose inputs are not all numbers
+     * (an error, a text, an empty cell or a position outside of the sheet) is computed by the given evaluator
+     * instead, like any cell. Only reads the inputs, so the chunks of a run may be computed concurrently.
+     */
+    private void computeRun(Run run, int from, int to, Evaluator scalar) {
+        int n = to - from;
+        double[][] refs = new double[run.inputs.length][n];
+        boolean[] alone = new boolean[n];
+        for (int i = 0; i < refs.length; i++) {
+            SCell[] inputs = run.inputs[i];
+            for (int j = 0; j < n; j++) {
+                SCell input = inputs[from + j];
+                if (input == null || input.getStatus() != SCell.VALID) alone[j] = true;
+                else refs[i][j] = input.getValue();
+            }
+        }
+        double[] values = new double[n];
+        run.cells[from].getFormula().evaluateColumn(refs, values, n);
+        for (int j = 0; j < n; j++) {
+            if (alone[j]) scalar.compute(run.cells[from + j]);
+            else run.cells[from + j].setValue(values[j], SCell.VALID);
+        }
+    }
+
+    /**
+     * Consecutive rows of a column sharing a columnar formula template, and the cells each of its references
+     * reads in each row (null outside of the sheet).
+     */
+    private final class Run {
+        final int x, y;
+        final SCell[] cells;
+        final SCell[][] inputs;
+        int depth; // Of all its rows in the current evaluate(int[][]), or -1 if they differ
+
+        Run(long[] keys, int first, int end) {
+            this.x = CellAddress.x(keys[first]);
+            this.y = CellAddress.y(keys[first]);
+            this.cells = new SCell[end - first];
+            for (int k = first; k < end; k++) cells[k - first] = Ex2Sheet.this.cells.get(keys[k]);
+            Formula formula = cells[0].getFormula();
+            this.inputs = new SCell[formula.getReferenceCount()][cells.length];
+            for (int i = 0; i < inputs.length; i++) {
+                int refX = formula.getReferenceX(i), refY = formula.getReferenceY(i); // Of the first row
+                for (int j = 0; j < cells.length; j++) {
+                    inputs[i][j] = isIn(refX, refY + j) ? cellAt(refX, refY + j) : null;
                 }
             }
         }
     }
 
+    /**
+     * Sets the pool used by evaluate(int[][]) to compute the cells of each depth level concurrently,
+     * and by loadMapped to parse chunks of the file concurrently.
+     * @param pool a ForkJoinPool, or null to evaluate sequentially (the default).
+     */
+    public void setEvaluationPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Computes a slice of one depth level, splitting it in halves until it is small enough.
+     * Each leaf uses its own Evaluator, all the inputs of the level were computed by previous levels.
+     */
+    private final class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final SCell[] cells;
+        private final int from, to;
+
+        LevelTask(SCell[] cells, int from, int to) {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                Evaluator leafEvaluator = new Evaluator(false);
+                for (int i = from; i < to; i++) leafEvaluator.compute(cells[i]);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LevelTask(cells, from, mid), new LevelTask(cells, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Computes a run of a level in chunks of RUN_CHUNK rows, splitting it in halves until it is small enough.
+     */
+    private final class RunTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Run run;
+        private final int from, to;
+
+        RunTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RUN_CHUNK) {
+                computeRun(run, from, to, new Evaluator(false));
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RunTask(run, from, mid), new RunTask(run, mid, to));
+            }
+        }
+    }
+
     private int getMaxDepth(int[][] dd) {
         int maxDepth = 0;
         for (int[] ints : dd) {
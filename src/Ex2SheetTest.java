@@ -1,4 +1,14 @@
 import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class Ex2SheetTest {
@@ -22,7 +32,7 @@ public class Ex2SheetTest {
         Ex2Sheet sheet = new Ex2Sheet(5, 5);
         assertTrue(sheet.isIn(0, 0), "Top-left corner should be valid.");
         assertTrue(sheet.isIn(4, 4), "Bottom-right corner should be valid.");
-        assertTrue(sheet.isIn(5, 5), "Out-of-bounds should be invalid.");
+        assertFalse(sheet.isIn(5, 5), "Out-of-bounds should be invalid.");
         assertFalse(sheet.isIn(-1, 0), "Negative index should be invalid.");
     }
 
@@ -109,7 +119,7 @@ public class Ex2SheetTest {
     void testIsInEdgeCase() {
         Ex2Sheet sheet = new Ex2Sheet(5, 5);
         assertTrue(sheet.isIn(4, 4));
-        assertTrue(sheet.isIn(5, 5));
+        assertFalse(sheet.isIn(5, 5), "The sheet is 5x5, so (5,5) is out of bounds.");
         assertFalse(sheet.isIn(-1, 0), "Negative row index should be out of bounds.");
         assertFalse(sheet.isIn(0, -1), "Negative column index should be out of bounds.");
     }
@@ -224,4 +234,561 @@ public class Ex2SheetTest {
         assertEquals(Ex2Utils.ERR_FORM, sheet.value(0, 0));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testCachedValueIsInvalidatedByUpstreamChange() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "10");
+        sheet.set(0, 1, "=A0+5");
+        sheet.set(0, 2, "=A1*2");
+        assertEquals("30.0", sheet.value(0, 2));
+        sheet.set(0, 0, "20");
+        assertEquals("25.0", sheet.value(0, 1), "A1 should be recomputed after A0 changed.");
+        assertEquals("50.0", sheet.value(0, 2), "A2 should be recomputed after A0 changed (transitively).");
+        sheet.set(0, 0, "text");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(0, 2), "A2 should become an error once A0 is text.");
+    }
+
+    @Test
+    void testBreakingACycleRecomputesItsCells() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "=B0");
+        sheet.set(1, 0, "=A0");
+        sheet.set(2, 0, "=A0+1");
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(2, 0));
+        sheet.set(1, 0, "3");
+        assertEquals("3.0", sheet.value(0, 0));
+        assertEquals("4.0", sheet.value(2, 0));
+    }
+
+    @Test
+    void testDepthOfChainAndDiamond() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "=A0+1");     // depth 1
+        sheet.set(1, 0, "=A0*2");     // depth 1
+        sheet.set(1, 1, "=A1+B0");    // depth 2 (diamond)
+        sheet.set(2, 0, "=B1+A0");    // depth 3
+        sheet.set(3, 0, "=1+2");      // no references: depth 0
+        int[][] d = sheet.depth();
+        assertEquals(0, d[0][0]);
+        assertEquals(1, d[0][1]);
+        assertEquals(1, d[1][0]);
+        assertEquals(2, d[1][1]);
+        assertEquals(3, d[2][0]);
+        assertEquals(0, d[3][0]);
+        assertEquals(0, d[4][4], "An empty cell has depth 0.");
+    }
+
+    @Test
+    void testDepthOfCycle() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "=B0");
+        sheet.set(1, 0, "=A0");
+        sheet.set(2, 0, "=C0");
+        sheet.set(3, 0, "=A0+1");
+        int[][] d = sheet.depth();
+        assertEquals(Ex2Utils.ERR, d[0][0]);
+        assertEquals(Ex2Utils.ERR, d[1][0]);
+        assertEquals(Ex2Utils.ERR, d[2][0], "A self reference is a cycle.");
+        assertEquals(Ex2Utils.ERR, d[3][0], "A cell depending on a cycle can not be computed either.");
+    }
+
+    @Test
+    void testParallelEvaluateMatchesSequential() {
+        Ex2Sheet sheet = new Ex2Sheet(26, 100);
+        for (int y = 0; y < 100; y++) {
+            sheet.set(0, y, "" + y);
+            for (int x = 1; x < 26; x++) {
+                sheet.set(x, y, "=A" + y + "*" + x + "+1"); // one wide level of 2500 cells
+            }
+        }
+        String[][] expected = new String[26][100];
+        for (int x = 0; x < 26; x++) {
+            for (int y = 0; y < 100; y++) expected[x][y] = sheet.value(x, y);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            sheet.setEvaluationPool(pool);
+            sheet.evaluate(sheet.depth());
+        } finally {
+            pool.shutdown();
+        }
+        for (int x = 0; x < 26; x++) {
+            for (int y = 0; y < 100; y++) {
+                assertEquals(expected[x][y], sheet.value(x, y), "Cell " + x + "," + y);
+            }
+        }
+        assertEquals("2.0", sheet.value(1, 1), "B1 = A1*1 + 1");
+    }
+
+    @Test
+    void testEmptyCellsAreSharedAndReadOnly() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        assertEquals("", sheet.get(1, 1).getData());
+        assertSame(sheet.get(1, 1), sheet.get(2, 2), "Positions which were never set share the empty cell.");
+        assertThrows(UnsupportedOperationException.class, () -> sheet.get(1, 1).setData("1"));
+        assertThrows(UnsupportedOperationException.class, () -> ((SCell) sheet.get(1, 1)).setData("1", new FormulaTemplates()));
+        sheet.set(1, 1, "7");
+        assertEquals("7", sheet.get(1, 1).getData());
+        assertEquals("", sheet.get(2, 2).getData());
+    }
+
+    @Test
+    void testEmptyCellOfOneSheetCanNotChangeAnother() {
+        Ex2Sheet first = new Ex2Sheet(5, 5), second = new Ex2Sheet(5, 5);
+        SCell empty = (SCell) first.get(1, 1);
+        assertThrows(UnsupportedOperationException.class, () -> empty.setOrder(7));
+        assertThrows(UnsupportedOperationException.class, () -> empty.setType(Ex2Utils.NUMBER, "42"));
+        assertThrows(UnsupportedOperationException.class, () -> empty.setValue(42, SCell.VALID));
+        assertThrows(UnsupportedOperationException.class, () -> empty.markEvaluating());
+        assertThrows(UnsupportedOperationException.class, () -> empty.invalidate());
+        assertThrows(UnsupportedOperationException.class, () -> empty.setAddress(CellAddress.pack(1, 1)));
+        assertThrows(UnsupportedOperationException.class, () -> empty.setPendingInputs(1));
+        assertThrows(UnsupportedOperationException.class, () -> empty.clearDependencies());
+        assertEquals(0, second.get(3, 3).getOrder());
+        Ex2Sheet third = new Ex2Sheet(5, 5);
+        third.set(0, 0, "=B1+1");
+        assertEquals(Ex2Utils.ERR_FORM, third.value(0, 0));
+        third.set(1, 1, "41");
+        assertEquals("42.0", third.value(0, 0));
+        assertEquals("", second.value(3, 3));
+    }
+
+    @Test
+    void testSaveSkipsEmptyCellsAndLoadRestores() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "10");
+        sheet.set(1, 0, "=A0*2");
+        sheet.set(2, 2, "hello");
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        sheet.save(file.getPath());
+        assertEquals(4, Files.readAllLines(file.toPath()).size(), "Header plus 3 non empty cells.");
+        Ex2Sheet loaded = new Ex2Sheet(5, 5);
+        loaded.load(file.getPath());
+        assertEquals("10.0", loaded.value(0, 0));
+        assertEquals("20.0", loaded.value(1, 0));
+        assertEquals("hello", loaded.value(2, 2));
+    }
+
+    @Test
+    void testLargeGridWithMultiLetterColumns() {
+        Ex2Sheet sheet = new Ex2Sheet(1000, 300000);
+        sheet.set(701, 250000, "21");                 // ZZ250000
+        sheet.set(702, 1, "=ZZ250000*2");             // AAA1
+        assertEquals("42.0", sheet.value(702, 1));
+        assertSame(sheet.get(702, 1), sheet.get("aaa1"));
+        assertTrue(sheet.isIn(999, 299999));
+        assertFalse(sheet.isIn(1000, 0));
+        sheet.set(0, 0, "=ALM0+1");                   // Column 1000 is outside of the sheet
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(0, 0));
+        assertNull(sheet.get("A1B"));
+    }
+
+    @Test
+    void testLoadReplacesContentAndComputesOnce() throws Exception {
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        String longText = "x".repeat(100000); // Longer than the read buffer
+        Files.writeString(file.toPath(), "header\r\n"
+                + "1,0,=A0+A1\r\n"  // References cells which are loaded later
+                + "0,0,1\n"
+                + "bad line\n"
+                + "9,9,out of the sheet\n"
+                + "x,1,2\n"
+                + "0,1,2\n"
+                + "2,0,=B0*C0\n"     // A cycle
+                + "3,3," + longText);
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(4, 4, "old");
+        sheet.load(file.getPath());
+        assertEquals("3.0", sheet.value(1, 0));
+        assertEquals("2.0", sheet.value(0, 1));
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(2, 0));
+        assertEquals(longText, sheet.value(3, 3));
+        assertEquals("", sheet.value(4, 4), "Loading replaces the previous content.");
+        sheet.set(0, 0, "10");
+        assertEquals("12.0", sheet.value(1, 0), "The dependency graph is built by the load.");
+    }
+
+    @Test
+    void testFailedLoadKeepsTheSheet() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "1");
+        sheet.set(1, 0, "=A0+1");
+        assertThrows(IOException.class, () -> sheet.load("/nonexistent/ex2.csv"));
+        assertEquals("1.0", sheet.value(0, 0));
+        assertEquals("2.0", sheet.value(1, 0));
+        sheet.set(0, 0, "5");
+        assertEquals("6.0", sheet.value(1, 0), "The dependency graph is kept.");
+    }
+
+    @Test
+    void testBinarySnapshotRoundTripsWithTextFormat() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(30, 200);
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "-17");
+        sheet.set(0, 150, "2.5");
+        sheet.set(0, 2, "007");            // A number whose text is not the canonical one
+        sheet.set(1, 0, "=A0+A1*A150");
+        sheet.set(1, 1, "=A0+A1*A150");
+        sheet.set(2, 0, "=C0");           // A cycle
+        sheet.set(3, 0, "héllo, world");
+        sheet.set(29, 199, "=A0/0");
+        File text = File.createTempFile("ex2", ".txt");
+        File binary = File.createTempFile("ex2", ".bin");
+        File again = File.createTempFile("ex2", ".txt");
+        text.deleteOnExit();
+        binary.deleteOnExit();
+        again.deleteOnExit();
+        sheet.save(text.getPath());
+        sheet.saveBinary(binary.getPath());
+        assertTrue(binary.length() < text.length(), "The snapshot is smaller than the text file.");
+
+        Ex2Sheet loaded = new Ex2Sheet(30, 200);
+        loaded.loadBinary(binary.getPath());
+        loaded.save(again.getPath());
+        assertEquals(Files.readAllLines(text.toPath()), Files.readAllLines(again.toPath()));
+        for (int x = 0; x < 30; x++) {
+            for (int y = 0; y < 200; y++) {
+                assertEquals(sheet.value(x, y), loaded.value(x, y), "Cell " + x + "," + y);
+            }
+        }
+        loaded.set(0, 0, "10");
+        assertEquals("-32.5", loaded.value(1, 0), "The dependency graph is restored.");
+        assertThrows(IOException.class, () -> loaded.loadBinary(text.getPath()));
+        assertEquals("-32.5", loaded.value(1, 0), "A failed load leaves the sheet unchanged.");
+        assertEquals("héllo, world", loaded.value(3, 0));
+    }
+
+    @Test
+    void testTruncatedSnapshotKeepsTheSheet() throws Exception {
+        Ex2Sheet saved = new Ex2Sheet(5, 5);
+        saved.set(0, 0, "1");
+        saved.set(1, 0, "=A0*2");
+        saved.set(2, 2, "some text");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        saved.saveBinary(bytes);
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "3");
+        sheet.set(0, 1, "keep");
+        sheet.set(1, 0, "=A0+1");
+        assertThrows(IOException.class, () -> sheet.loadBinary(new ByteArrayInputStream(truncated)));
+        assertEquals("keep", sheet.value(0, 1));
+        assertEquals("4.0", sheet.value(1, 0));
+        assertEquals("", sheet.value(2, 2));
+        sheet.set(0, 0, "10");
+        assertEquals("11.0", sheet.value(1, 0), "The dependency graph is kept.");
+    }
+
+    @Test
+    void testLoadMappedMatchesLoad() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(26, 1000);
+        for (int x = 0; x < 26; x++) {
+            for (int y = 0; y < 1000; y++) {
+                sheet.set(x, y, y == 0 ? Integer.toString(x) : (x + y) % 7 == 0 ? "text " + x : "=" + CellAddress.toRef(x, y - 1) + "+1");
+            }
+        }
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        sheet.save(file.getPath());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Ex2Sheet expected = new Ex2Sheet(26, 1000);
+            expected.load(file.getPath());
+            Ex2Sheet sequential = new Ex2Sheet(26, 1000);
+            sequential.loadMapped(file.getPath());
+            Ex2Sheet parallel = new Ex2Sheet(26, 1000);
+            parallel.setEvaluationPool(pool);
+            parallel.loadMapped(file.getPath());
+            for (int x = 0; x < 26; x++) {
+                for (int y = 0; y < 1000; y++) {
+                    assertEquals(expected.get(x, y).getData(), sequential.get(x, y).getData());
+                    assertEquals(expected.value(x, y), sequential.value(x, y), "Cell " + x + "," + y);
+                    assertEquals(expected.value(x, y), parallel.value(x, y), "Cell " + x + "," + y);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testLoadMappedKeepsTheSheetAndReadsUtf8() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "1");
+        sheet.set(1, 0, "=A0+1");
+        sheet.set(2, 0, "héllo");
+        assertThrows(IOException.class, () -> sheet.loadMapped("/nonexistent/ex2.csv"));
+        assertEquals("2.0", sheet.value(1, 0));
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        sheet.save(file.getPath());
+        Ex2Sheet loaded = new Ex2Sheet(5, 5);
+        loaded.loadMapped(file.getPath());
+        assertEquals("héllo", loaded.value(2, 0));
+        assertEquals("2.0", loaded.value(1, 0));
+    }
+
+    @Test
+    void testRangeAggregatesFollowEdits() {
+        Ex2Sheet sheet = new Ex2Sheet(26, 100000);
+        for (int y = 0; y < 1000; y++) {
+            sheet.set(0, y, Integer.toString(y));
+        }
+        sheet.set(0, 1000, "text is skipped");
+        sheet.set(1, 0, "=SUM(A0:A99999)");
+        sheet.set(1, 1, "=COUNT(A0:A99999)");
+        sheet.set(1, 2, "=avg(A0:A99999)");
+        sheet.set(1, 3, "=MIN(A0:A99999) + MAX(A0:A99999)");
+        sheet.set(1, 4, "=B0*2");
+        assertEquals("499500.0", sheet.value(1, 0));
+        assertEquals("1000.0", sheet.value(1, 1));
+        assertEquals("499.5", sheet.value(1, 2));
+        assertEquals("999.0", sheet.value(1, 3));
+        assertEquals("999000.0", sheet.value(1, 4));
+
+        sheet.set(0, 99999, "500");        // A new cell at the end of the range
+        sheet.set(0, 0, "-1");             // The minimum changes
+        sheet.set(0, 500, "");             // A number is removed
+        assertEquals(Double.toString(499500 + 500 - 1 - 500), sheet.value(1, 0));
+        assertEquals("1000.0", sheet.value(1, 1));
+        assertEquals("998.0", sheet.value(1, 3));
+        assertEquals(Double.toString(2.0 * (499500 + 500 - 1 - 500)), sheet.value(1, 4));
+
+        sheet.set(0, 7, "=A6*10");         // A formula inside the range
+        assertEquals(Double.toString(499499 + 60 - 7), sheet.value(1, 0));
+        sheet.set(1, 0, "=SUM(C0:C9)");    // The old range is no longer watched
+        sheet.set(0, 1, "1000");
+        assertEquals("0.0", sheet.value(1, 0));
+        assertEquals("1000.0", sheet.value(1, 1));
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0}, new int[]{sheet.depth()[0][0], sheet.depth()[0][6],
+                sheet.depth()[2][0], sheet.depth()[0][1], sheet.depth()[0][99999]});
+    }
+
+    @Test
+    void testRangeErrorsAndCycles() {
+        Ex2Sheet sheet = new Ex2Sheet(10, 10);
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "=A0+");
+        sheet.set(1, 0, "=SUM(A0:A5)");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 0));
+        sheet.set(0, 1, "2");
+        assertEquals("3.0", sheet.value(1, 0));
+        sheet.set(1, 1, "=MAX(A0:B5)");    // Covers itself
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(1, 1));
+        sheet.set(0, 2, "=B0");            // B0 sums A0:A5, which now holds A2 = B0
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(1, 0));
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(0, 2));
+        assertEquals(Ex2Utils.ERR, sheet.depth()[1][0]);
+        sheet.set(0, 2, "4");
+        assertEquals("7.0", sheet.value(1, 0));
+        sheet.set(1, 1, "=MAX(A0:A5)");
+        assertEquals("4.0", sheet.value(1, 1));
+        assertEquals(1, sheet.depth()[1][0]);
+        sheet.set(2, 0, "=SUM(A0:A10)");   // Ends outside of the sheet
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(2, 0));
+    }
+
+    @Test
+    void testCountEvaluatesItsArguments() {
+        Ex2Sheet sheet = new Ex2Sheet(10, 10);
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "text");
+        sheet.set(1, 0, "=COUNT(A0:A5, 1/0, A0)");
+        assertEquals("3.0", sheet.value(1, 0));  // 1/0 is a number, as in SUM(1/0)
+        sheet.set(1, 1, "=COUNT(A0, A1)");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 1));
+        sheet.set(1, 2, "=COUNT(B2, 2)");
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(1, 2));
+        sheet.set(1, 3, "=COUNT(B1) + 1");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 3));
+        sheet.set(0, 1, "5");
+        assertEquals("2.0", sheet.value(1, 1));
+        assertEquals("2.0", sheet.value(1, 3));
+    }
+
+    @Test
+    void testRangesAfterLoadAndEvaluate() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(5, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            sheet.setEvaluationPool(pool);
+            for (int y = 0; y < 1000; y++) {
+                sheet.set(0, y, Integer.toString(y % 10));
+                sheet.set(1, y, "=A" + y + "*2");
+            }
+            sheet.set(2, 0, "=SUM(B0:B999)+COUNT(A0:B999)");
+            sheet.set(2, 1, "=C0+MAX(A0:A999)");
+            assertEquals("11000.0", sheet.value(2, 0));
+            assertEquals(2, sheet.depth()[2][0]);
+            sheet.evaluate(sheet.depth());
+            assertEquals("11000.0", sheet.value(2, 0));
+            assertEquals("11009.0", sheet.value(2, 1));
+        } finally {
+            pool.shutdown();
+        }
+
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        sheet.save(file.getPath());
+        Ex2Sheet loaded = new Ex2Sheet(5, 1000);
+        loaded.load(file.getPath());
+        assertEquals("11009.0", loaded.value(2, 1));
+        loaded.set(0, 999, "109");
+        assertEquals(Double.toString(11000 + 200 + 109), loaded.value(2, 1));
+
+        File snapshot = File.createTempFile("ex2", ".bin");
+        snapshot.deleteOnExit();
+        loaded.saveBinary(snapshot.getPath());
+        Ex2Sheet restored = new Ex2Sheet(5, 1000);
+        restored.loadBinary(snapshot.getPath());
+        restored.set(0, 999, "9");
+        assertEquals("11009.0", restored.value(2, 1));
+    }
+
+    @Test
+    void testIfLinksOnlyTheTakenBranch() {
+        Ex2Sheet sheet = new Ex2Sheet(10, 10);
+        sheet.set(0, 0, "1");
+        sheet.set(1, 0, "10");
+        sheet.set(2, 0, "=B0*2");
+        sheet.set(3, 0, "=IF(A0 > 0, B0, C0 + D0)");   // The else branch is a cycle, but it is not taken
+        assertEquals("10.0", sheet.value(3, 0));
+        assertEquals(1, sheet.depth()[3][0]);
+        assertEquals(2, ((SCell) sheet.get(3, 0)).getDependencies().size());
+
+        sheet.set(0, 0, "0");
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(3, 0));
+        assertEquals(Ex2Utils.ERR, sheet.depth()[3][0]);
+        sheet.set(3, 0, "=IF(A0 > 0, B0, C0 + 1)");
+        assertEquals("21.0", sheet.value(3, 0));
+        assertEquals(2, sheet.depth()[3][0]);
+        sheet.set(1, 0, "5");
+        assertEquals("11.0", sheet.value(3, 0));
+
+        sheet.set(0, 0, "1");
+        assertEquals("5.0", sheet.value(3, 0));
+        assertFalse(((SCell) sheet.get(3, 0)).getDependencies().contains((SCell) sheet.get(2, 0)));
+        sheet.set(2, 0, "hello");                        // Not in the taken branch, D0 is not recomputed
+        assertEquals("5.0", sheet.value(3, 0));
+        sheet.set(0, 0, "0");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(3, 0));
+    }
+
+    @Test
+    void testIfBranchesComputeEachCellOnce() {
+        Ex2Sheet sheet = new Ex2Sheet(10, 10);
+        sheet.set(0, 0, "1");
+        sheet.set(3, 0, "=A0*10");
+        sheet.set(1, 0, "=D0+1");
+        sheet.set(2, 0, "=IF(A0 > 0, 1, B0)");     // Both read B0 once A0 drops, while B0 still waits for D0
+        sheet.set(2, 1, "=IF(A0 > 0, 2, B0*2)");
+        int[][] cells = {{3, 0}, {1, 0}, {2, 0}, {2, 1}};
+        for (String input : new String[]{"0", "-1", "3", "0"}) {
+            int[] before = new int[cells.length];
+            for (int i = 0; i < cells.length; i++) before[i] = evaluations(sheet, cells[i]);
+            sheet.set(0, 0, input);
+            for (int i = 0; i < cells.length; i++) {
+                assertEquals(before[i] + 1, evaluations(sheet, cells[i]), "Cell " + Arrays.toString(cells[i]));
+            }
+        }
+        assertEquals("1.0", sheet.value(2, 0));
+        assertEquals("2.0", sheet.value(2, 1));
+        sheet.set(3, 0, "=A0*10+5");
+        assertEquals("6.0", sheet.value(2, 0));
+        assertEquals("12.0", sheet.value(2, 1));
+    }
+
+    @Test
+    void testIfReleasesTheCellsItStopsReading() {
+        Ex2Sheet sheet = new Ex2Sheet(10, 10);
+        Cell empty = sheet.get(9, 9);                   // No cell stored: the shared empty cell
+        sheet.set(0, 0, "1");
+        sheet.set(5, 0, "text");
+        sheet.set(1, 0, "=IF(A0 > 0, 1, E5)");
+        assertSame(empty, sheet.get(4, 5));             // Linked until computed, then released
+        sheet.set(0, 0, "0");
+        assertNotSame(empty, sheet.get(4, 5));
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 0));
+        sheet.set(0, 0, "2");
+        assertSame(empty, sheet.get(4, 5));
+
+        sheet.set(1, 1, "=IF(A0 > 0, F0 + F1, 0)");     // F0 is a text: F1 is not read
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 1));
+        assertEquals(Set.of(sheet.get(0, 0), sheet.get(5, 0)), ((SCell) sheet.get(1, 1)).getDependencies());
+        assertSame(empty, sheet.get(5, 1));
+    }
+
+    private static int evaluations(Ex2Sheet sheet, int[] cell) {
+        return ((SCell) sheet.get(cell[0], cell[1])).getFormula().getEvaluations();
+    }
+
+    @Test
+    void testFilledDownFormulasShareATemplate() throws Exception {
+        Ex2Sheet sheet = new Ex2Sheet(3, 100);
+        for (int y = 0; y < 100; y++) {
+            sheet.set(0, y, Integer.toString(y));
+            sheet.set(1, y, "=A" + y + "*2+1");
+        }
+        sheet.set(2, 0, "=b0");                          // Not canonical: keeps its own text
+        assertEquals("199.0", sheet.value(1, 99));
+        assertEquals("=A57*2+1", sheet.get(1, 57).getData());
+        assertTrue(((SCell) sheet.get(1, 3)).getFormula().isShareable());
+        assertEquals("=b0", sheet.get(2, 0).getData());
+        assertEquals("1.0", sheet.value(2, 0));
+
+        File file = File.createTempFile("ex2", ".txt");
+        file.deleteOnExit();
+        sheet.save(file.getPath());
+        Ex2Sheet loaded = new Ex2Sheet(3, 100);
+        loaded.load(file.getPath());
+        assertEquals("=A99*2+1", loaded.get(1, 99).getData());
+        loaded.set(0, 99, "1000");
+        assertEquals("2001.0", loaded.value(1, 99));
+
+        loaded.set(1, 99, null);                          // A shared formula without its text is released
+        assertEquals(Ex2Utils.EMPTY_CELL, loaded.value(1, 99));
+    }
+
+    @Test
+    void testEvaluateComputesRunsOfAColumn() {
+        Ex2Sheet sheet = new Ex2Sheet(4, 10000);
+        for (int y = 0; y < 10000; y++) {
+            sheet.set(0, y, y % 1000 == 7 ? "text" : Integer.toString(y));
+            sheet.set(1, y, "=A" + y + "*2+1");
+            if (y > 0) sheet.set(2, y, "=B" + y + "-B" + (y - 1));
+        }
+        sheet.set(1, 5000, "=A5000*3");              // Breaks the run
+        sheet.set(3, 0, "=A9999/B0");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                sheet.setEvaluationPool(pass == 0 ? null : pool);
+                sheet.evaluate(sheet.depth());
+                assertEquals("1.0", sheet.value(1, 0));
+                assertEquals("19999.0", sheet.value(1, 9999));
+                assertEquals("15000.0", sheet.value(1, 5000));
+                assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 1007));
+                assertEquals(Ex2Utils.ERR_FORM, sheet.value(2, 1008));
+                assertEquals("2.0", sheet.value(2, 1009));
+                assertEquals("-4997.0", sheet.value(2, 5001));
+                assertEquals("9999.0", sheet.value(3, 0));
+            }
+            sheet.set(0, 1007, "1");                      // Still linked after a column-wise evaluation
+            assertEquals("3.0", sheet.value(1, 1007));
+            assertEquals("2014.0", sheet.value(2, 1008));
+            sheet.set(1, 200, "=A200*10");                // The runs are found again
+            sheet.set(0, 300, "1");
+            sheet.evaluate(sheet.depth());
+            assertEquals("2000.0", sheet.value(1, 200));
+            assertEquals("-1597.0", sheet.value(2, 201));
+            assertEquals("3.0", sheet.value(1, 300));
+            assertEquals("-596.0", sheet.value(2, 300));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -1,94 +1,152 @@
-import java.util.Stack;
-
+/**
+ * Evaluates arithmetic expressions (+, -, *, /, parentheses and negative numbers) given as Strings.
+ * An instance is meant to be reused: its operand and operator stacks are primitive arrays which only grow,
+ * white spaces are skipped in place and numbers are scanned directly from the expression,
+ * so evaluating an expression does not allocate. An instance is not thread safe.
+ */
 public class ExpressionEvaluator {
-    public double evaluate(String expression) throws Exception {
-        // Remove all whitespace from the input
-        expression = expression.replaceAll("\\s", "");
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
 
-        // Evaluate the sanitized expression
-        return evaluateExpression(expression);
-    }
+    private double[] numbers = new double[16]; // Stack to hold numbers
+    private char[] operators = new char[16];   // Stack to hold operators
+    private int numberCount, operatorCount;
 
-    private double evaluateExpression(String expression) throws Exception {
-        Stack<Double> numbers = new Stack<>(); // Stack to hold numbers
-        Stack<Character> operators = new Stack<>(); // Stack to hold operators
+    public double evaluate(String expression) throws Exception {
+        int length = expression.length();
+        if (numbers.length <= length) {
+            numbers = new double[length + 1];
+            operators = new char[length + 1];
+        }
+        numberCount = 0;
+        operatorCount = 0;
 
+        char previous = 0; // The last non white space character (0 at the start of the expression)
         int i = 0;
-        while (i < expression.length()) {
+        while (i < length) {
             char currentChar = expression.charAt(i);
+            if (Character.isWhitespace(currentChar)) {
+                i++;
+                continue;
+            }
 
             // Case: Number or Negative Number
-            if (Character.isDigit(currentChar) || currentChar == '.' ||
-                    (currentChar == '-' && (i == 0 || expression.charAt(i - 1) == '(' || isOperator(expression.charAt(i - 1))))) {
-                StringBuilder num = new StringBuilder();
-                // Check for a sequence of consecutive '-' signs
-                if (currentChar == '-') {
-                    int signCount = 0;
-
-                    // Count consecutive '-' signs
-                    while (i < expression.length() && expression.charAt(i) == '-') {
-                        signCount++;
-                        i++;
-                    }
-
-                    // Determine the effective sign: odd -> negative, even -> positive
-                    if (signCount % 2 != 0) {
-                        num.append('-');
-                    }
-                }
-
-                // Extract the rest of the number
-                while (i < expression.length() &&
-                        (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
-                    num.append(expression.charAt(i));
-                    i++;
-                }
-
-                numbers.push(Double.parseDouble(num.toString()));
+            if (Lexer.isDigit(currentChar) || currentChar == '.' ||
+                    (currentChar == '-' && (previous == 0 || previous == '(' || Lexer.isOperator(previous)))) {
+                i = scanNumber(expression, i);
+                previous = '0';
                 continue;
             }
 
             // Case: Opening Parenthesis
             if (currentChar == '(') {
-                operators.push(currentChar);
+                operators[operatorCount++] = currentChar;
             }
 
             // Case: Closing Parenthesis
             else if (currentChar == ')') {
-                while (!operators.isEmpty() && operators.peek() != '(') {
-                    numbers.push(applyOperation(operators.pop(), numbers.pop(), numbers.pop()));
+                while (operatorCount > 0 && operators[operatorCount - 1] != '(') {
+                    reduce();
                 }
-                if (operators.isEmpty()) {
+                if (operatorCount == 0) {
                     throw new Exception("Mismatched parentheses");
                 }
-                operators.pop(); // Remove the '('
+                operatorCount--; // Remove the '('
             }
 
             // Case: Operator (+, -, *, /)
-            else if (isOperator(currentChar)) {
-                while (!operators.isEmpty() && precedence(operators.peek()) >= precedence(currentChar)) {
-                    numbers.push(applyOperation(operators.pop(), numbers.pop(), numbers.pop()));
+            else if (Lexer.isOperator(currentChar)) {
+                while (operatorCount > 0 && precedence(operators[operatorCount - 1]) >= precedence(currentChar)) {
+                    reduce();
                 }
-                operators.push(currentChar);
+                operators[operatorCount++] = currentChar;
             }
 
+            previous = currentChar;
             i++;
         }
 
         // Process any remaining operators
-        while (!operators.isEmpty()) {
-            numbers.push(applyOperation(operators.pop(), numbers.pop(), numbers.pop()));
+        while (operatorCount > 0) {
+            reduce();
         }
 
-        if (numbers.size() != 1) {
+        if (numberCount != 1) {
             throw new Exception("Invalid expression");
         }
 
-        return numbers.pop();
+        return numbers[0];
     }
 
-    private boolean isOperator(char c) {
-        return c == '+' || c == '-' || c == '*' || c == '/';
+    /**
+     * Scans the number starting at index i (with any leading sequence of '-' signs: odd -> negative,
+     * even -> positive) and pushes it. While its digits (without the dot) form an integer of at most 2^53, which
+     * a double holds exactly, and it has at most 22 decimals (an exact power of ten), the value is the correctly
+     * rounded quotient of the two; other numbers fall back to Double.parseDouble.
+     * @return the index following the number.
+     */
+    private int scanNumber(String expression, int i) {
+        int length = expression.length();
+        int signCount = 0;
+        while (i < length && (expression.charAt(i) == '-' || Character.isWhitespace(expression.charAt(i)))) {
+            if (expression.charAt(i) == '-') signCount++;
+            i++;
+        }
+
+        int start = i;
+        long mantissa = 0;
+        int decimals = 0, digits = 0;
+        boolean dot = false, exact = true;
+        while (i < length) {
+            char c = expression.charAt(i);
+            if (Lexer.isDigit(c)) {
+                digits++;
+                if (mantissa <= MAX_EXACT_MANTISSA) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (dot) decimals++;
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.') {
+                if (dot) exact = false; // Let Double.parseDouble reject it
+                dot = true;
+            } else if (!Character.isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+
+        double value;
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid number at index " + start);
+        } else if (exact && mantissa <= MAX_EXACT_MANTISSA && decimals < POW10.length) {
+            value = mantissa / POW10[decimals];
+        } else {
+            value = Double.parseDouble(withoutSpaces(expression, start, i));
+        }
+        numbers[numberCount++] = signCount % 2 != 0 ? -value : value;
+        return i;
+    }
+
+    private static String withoutSpaces(String expression, int from, int to) {
+        StringBuilder builder = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(expression.charAt(i))) builder.append(expression.charAt(i));
+        }
+        return builder.toString();
+    }
+
+    /** Pops an operator and its two operands and pushes the result. */
+    private void reduce() throws Exception {
+        if (numberCount < 2) {
+            throw new Exception("Invalid expression");
+        }
+        double b = numbers[--numberCount];
+        double a = numbers[--numberCount];
+        numbers[numberCount++] = applyOperation(operators[--operatorCount], b, a);
     }
 
     private int precedence(char operator) {
@@ -108,4 +166,4 @@ public class ExpressionEvaluator {
             default -> throw new IllegalArgumentException("Invalid operator: " + op);
         };
     }
-}
\ No newline at end of file
+}
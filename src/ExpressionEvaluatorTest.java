@@ -171,4 +171,30 @@ public class ExpressionEvaluatorTest {
         double result = evaluator.evaluate(expression);
         assertEquals(7.0, result, 0.001);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEvaluatorInstanceIsReusable() throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        assertEquals(5.0, evaluator.evaluate("2+3"), 0.001);
+        assertEquals(20.0, evaluator.evaluate("(2+3)*4"), 0.001);
+        assertEquals(-15.0, evaluator.evaluate("-15"), 0.001);
+        assertEquals(5.0, evaluator.evaluate("2+3"), 0.001);
+    }
+
+    @Test
+    public void testEvaluateNumbersAreParsedExactly() throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        assertEquals(0.1 + 0.2, evaluator.evaluate("0.1+0.2"));
+        assertEquals(Double.parseDouble("123456789.987654321"), evaluator.evaluate("123456789.987654321"));
+        assertEquals(Double.parseDouble("12345678901234567890"), evaluator.evaluate("12345678901234567890"));
+    }
+
+    @Test
+    public void testEvaluateInvalidExpressions() {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        assertThrows(Exception.class, () -> evaluator.evaluate("(2+3))"));
+        assertThrows(Exception.class, () -> evaluator.evaluate("*2"));
+        assertThrows(Exception.class, () -> evaluator.evaluate(""));
+        assertThrows(Exception.class, () -> evaluator.evaluate("1.2.3"));
+    }
+}
@@ -0,0 +1,794 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled spreadsheet formula.
+ * The text of a formula (e.g., "=(A1+2)*B3" or "=SUM(A1:A100)/2") is parsed once into an expression tree in which
+ * every cell reference and range is already resolved to its (x, y) coordinates.
+ * Evaluating a Formula is a plain tree walk over doubles - no regex and no String allocation.
+ * <p>
+ * A formula is compiled relative to the cell holding it (its host): the tree stores each reference as an offset
+ * from the host, so filled down formulas such as "=A0*B0" in C0 and "=A1*B1" in C1 share one template,
+ * and at(x, y) places that template in another cell without parsing anything (see FormulaTemplates).
+ * <p>
+ * IF evaluates only the branch its condition selects. The references found in IF branches are conditional:
+ * a sheet need not link them, only the ones an evaluation actually reads (see isConditionalReference).
+ * Comparisons (&lt; &gt; == != &lt;= &gt;=) evaluate to 1 (true) or 0 (false).
+ * <p>
+ * Evaluation is tiered: a formula is interpreted (a walk over its tree) until it was evaluated
+ * COMPILE_THRESHOLD times, it is then compiled to bytecode by FormulaCompiler, which the JIT optimizes
+ * like any Java method. Cells which are recomputed over and over get fast, the others never pay for compiling.
+ */
+public class Formula {
+    /** The aggregates an Env computes over a range. */
+    public static final int SUM = 0, COUNT = 1, MIN = 2, MAX = 3;
+    static final int AVG = 4; // SUM / COUNT, computed by the formula itself
+    static final int IF = 5, SIN = 6, COS = 7, POW = 8;
+    /** Evaluations of a formula after which it is compiled to bytecode. */
+    static final int COMPILE_THRESHOLD = 1000;
+    private static final String[] FUNCTIONS = {"SUM", "COUNT", "MIN", "MAX", "AVG", "IF", "SIN", "COS", "POW"};
+    private static final int[] ARITY = {-1, -1, -1, -1, -1, 3, 1, 1, 2}; // -1: an aggregate, any number of arguments
+    private static final String[] COMPARISONS = {"<=", ">=", "==", "!=", "<", ">"}; // Two character operators first
+
+    /**
+     * The environment a formula is evaluated in: supplies the values of the referenced cells.
+     */
+    public interface Env {
+        /**
+         * Returns the numeric value of the cell at (x, y).
+         * If that cell can not be used as a number (text, error, cycle) the implementation records the error
+         * and returns Double.NaN - evaluation simply continues and the caller checks the recorded error.
+         * @param x integer, x-coordinate of the referenced cell.
+         * @param y integer, y-coordinate of the referenced cell.
+         * @return the numeric value of the referenced cell.
+         */
+        double valueAt(int x, int y);
+
+        /**
+         * Aggregates the numbers of the range [x1, x2] x [y1, y2] (x1 &lt;= x2, y1 &lt;= y2).
+         * Empty and text cells of a range are skipped; a malformed or cyclic formula in it is an error, recorded
+         * like in valueAt. The default implementation goes through valueAt cell by cell.
+         * @param function SUM, COUNT, MIN or MAX.
+         * @return the aggregate: 0 for an empty SUM or COUNT, +/-Infinity for an empty MIN/MAX.
+         */
+        default double aggregate(int function, int x1, int y1, int x2, int y2) {
+            double result = identity(function);
+            for (int x = x1; x <= x2; x++) {
+                for (int y = y1; y <= y2; y++) {
+                    result = combine(function, result, function == COUNT ? 1 : valueAt(x, y));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the aggregate of no value at all: 0 for SUM and COUNT, +Infinity for MIN and -Infinity for MAX.
+     */
+    static double identity(int function) {
+        return function == MIN ? Double.POSITIVE_INFINITY : function == MAX ? Double.NEGATIVE_INFINITY : 0;
+    }
+
+    /**
+     * @return the MIN or MAX of an aggregate, or 0 if it aggregated no number at all.
+     */
+    static double zeroIfNone(double result, double count) {
+        return count == 0 ? 0 : result;
+    }
+
+    /**
+     * A formula compiled to bytecode (see FormulaCompiler): computes exactly what the tree computes.
+     */
+    interface Code {
+        double evaluate(Env env, int hostX, int hostY);
+    }
+
+    /**
+     * Combines two partial aggregates of the same function (counts add up, like sums).
+     */
+    static double combine(int function, double a, double b) {
+        return switch (function) {
+            case MIN -> Math.min(a, b);
+            case MAX -> Math.max(a, b);
+            default -> a + b;
+        };
+    }
+
+    /**
+     * The part of a formula which does not depend on its host: the tree and the references as offsets from the host.
+     * Shared by all the Formulas placed (with at) from the same compiled text.
+     */
+    private static final class Template {
+        final Node root;
+        final int[] refX, refY;       // Distinct cells referenced, as offsets from the host
+        final boolean[] conditional;  // Per reference: found only in IF branches
+        final boolean hasConditional;
+        final int[] ranges;           // Ranges aggregated: x1, y1, x2, y2 per range, as offsets from the host
+        final String[] segments;      // The text around the references as written (null if it can not be rebuilt)
+        final int[] textX, textY;     // Offsets of the references as written, segments[i] is before the i-th one
+        final boolean columnar;       // Can be computed for many hosts at once (see evaluateColumn)
+        // Tiering: the compiled code (null while interpreted) and the evaluations so far, over all the hosts.
+        // Both are racy on purpose: the code is stateless, and a lost count only delays compiling.
+        Code code;
+        int evaluations;
+
+        Template(Parser parser, Node root) {
+            this.root = root;
+            this.refX = Arrays.copyOf(parser.refX, parser.refCount);
+            this.refY = Arrays.copyOf(parser.refY, parser.refCount);
+            this.conditional = Arrays.copyOf(parser.refConditional, parser.refCount);
+            this.ranges = Arrays.copyOf(parser.ranges, parser.rangeCount * 4);
+            boolean any = false;
+            for (boolean c : conditional) any |= c;
+            this.hasConditional = any;
+            this.textX = Arrays.copyOf(parser.textX, parser.textCount);
+            this.textY = Arrays.copyOf(parser.textY, parser.textCount);
+            this.segments = parser.canonical ? parser.segments() : null;
+            this.columnar = ranges.length == 0 && root.isColumnar();
+        }
+    }
+
+    private final Template template;
+    private final int hostX, hostY;
+
+    private Formula(Template template, int hostX, int hostY) {
+        this.template = template;
+        this.hostX = hostX;
+        this.hostY = hostY;
+    }
+
+    /**
+     * Compiles the given formula text (of a cell at 0, 0: the references are absolute).
+     * @param text the cell data, including the leading '='.
+     * @return the compiled formula.
+     * @throws IllegalArgumentException if the text is not a well formed formula.
+     */
+    public static Formula compile(String text) {
+        return compile(text, 0, 0);
+    }
+
+    /**
+     * Compiles the given formula text of the cell (hostX, hostY).
+     * @param text the cell data, including the leading '='.
+     * @return the compiled formula.
+     * @throws IllegalArgumentException if the text is not a well formed formula.
+     */
+    public static Formula compile(String text, int hostX, int hostY) {
+        if (text == null || !text.startsWith("=")) {
+            throw new IllegalArgumentException("Not a formula: " + text);
+        }
+        Parser parser = new Parser(text, 1, hostX, hostY);
+        Node root = parser.parseExpression();
+        parser.skipSpaces();
+        if (parser.pos != parser.chars.length) {
+            throw new IllegalArgumentException("Unexpected character in formula: " + text);
+        }
+        return new Formula(new Template(parser, root), hostX, hostY);
+    }
+
+    /**
+     * @return this formula moved to the cell (hostX, hostY): every reference keeps its offset from the host,
+     * like a formula filled down or copied in a spreadsheet. Shares the compiled template.
+     */
+    public Formula at(int hostX, int hostY) {
+        return new Formula(template, hostX, hostY);
+    }
+
+    /**
+     * @return true iff the text of this formula can be rebuilt by toText (its references are written in upper case,
+     * without leading zeros), so a cell may drop its text and share this formula.
+     */
+    public boolean isShareable() {
+        return template.segments != null;
+    }
+
+    /**
+     * @return the text of this formula at its host, or null if it is not shareable.
+     */
+    public String toText() {
+        String[] segments = template.segments;
+        if (segments == null) return null;
+        StringBuilder text = new StringBuilder(segments[0]);
+        for (int i = 0; i < template.textX.length; i++) {
+            text.append(CellAddress.toRef(hostX + template.textX[i], hostY + template.textY[i])).append(segments[i + 1]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the number of distinct cells referenced by this formula.
+     */
+    public int getReferenceCount() {
+        return template.refX.length;
+    }
+
+    /**
+     * @param i index of a reference, 0 &lt;= i &lt; getReferenceCount().
+     * @return the x-coordinate of the i-th referenced cell.
+     */
+    public int getReferenceX(int i) {
+        return hostX + template.refX[i];
+    }
+
+    /**
+     * @param i index of a reference, 0 &lt;= i &lt; getReferenceCount().
+     * @return the y-coordinate of the i-th referenced cell.
+     */
+    public int getReferenceY(int i) {
+        return hostY + template.refY[i];
+    }
+
+    /**
+     * @param i index of a reference, 0 &lt;= i &lt; getReferenceCount().
+     * @return true iff the i-th reference is only found in IF branches, so an evaluation may not read it.
+     */
+    public boolean isConditionalReference(int i) {
+        return template.conditional[i];
+    }
+
+    /**
+     * @return true iff some reference of this formula is conditional.
+     */
+    public boolean hasConditionalReferences() {
+        return template.hasConditional;
+    }
+
+    /**
+     * @return the number of ranges (e.g., A1:B10) aggregated by this formula.
+     * The cells of a range are not references: a range of a million rows costs one entry.
+     */
+    public int getRangeCount() {
+        return template.ranges.length / 4;
+    }
+
+    /** @return the first column of the i-th range, 0 &lt;= i &lt; getRangeCount(). */
+    public int getRangeX1(int i) {
+        return hostX + template.ranges[4 * i];
+    }
+
+    /** @return the first row of the i-th range, 0 &lt;= i &lt; getRangeCount(). */
+    public int getRangeY1(int i) {
+        return hostY + template.ranges[4 * i + 1];
+    }
+
+    /** @return the last column of the i-th range, 0 &lt;= i &lt; getRangeCount(). */
+    public int getRangeX2(int i) {
+        return hostX + template.ranges[4 * i + 2];
+    }
+
+    /** @return the last row of the i-th range, 0 &lt;= i &lt; getRangeCount(). */
+    public int getRangeY2(int i) {
+        return hostY + template.ranges[4 * i + 3];
+    }
+
+    /**
+     * Evaluates this formula.
+     * @param env resolves the values of referenced cells.
+     * @return the computed value (meaningless if env recorded an error).
+     */
+    public double evaluate(Env env) {
+        Template t = template;
+        Code compiled = t.code;
+        if (compiled != null) return compiled.evaluate(env, hostX, hostY);
+        if (++t.evaluations == COMPILE_THRESHOLD) t.code = FormulaCompiler.compile(t.root); // null: stays interpreted
+        return t.root.eval(env, hostX, hostY);
+    }
+
+    /**
+     * @return the interpreted evaluations of the template of this formula so far (over all the hosts).
+     */
+    int getEvaluations() {
+        return template.evaluations;
+    }
+
+    /**
+     * @return true iff this formula is evaluated by compiled code.
+     */
+    boolean isCompiled() {
+        return template.code != null;
+    }
+
+    /**
+     * Compiles this formula right away (instead of after COMPILE_THRESHOLD evaluations of its template).
+     * @return true iff it is now evaluated by compiled code.
+     */
+    boolean compileNow() {
+        if (template.code == null) template.code = FormulaCompiler.compile(template.root);
+        return template.code != null;
+    }
+
+    /**
+     * @return true iff evaluateColumn can compute this formula: it has no IF (whose branches are evaluated lazily)
+     * and no range (aggregated by the Env).
+     */
+    boolean isColumnar() {
+        return template.columnar;
+    }
+
+    /**
+     * @return true iff both formulas are the same template placed at (possibly) different hosts, see at.
+     */
+    boolean sharesTemplate(Formula other) {
+        return template == other.template;
+    }
+
+    /**
+     * Computes the template of this (columnar) formula for n hosts at once, each node in one tight loop over
+     * the n hosts rather than the whole tree once per host.
+     * @param refs refs[i][j] is the value of the i-th reference (see getReferenceX) of the j-th host.
+     * @param out receives the value of the formula at the j-th host in out[j].
+     */
+    void evaluateColumn(double[][] refs, double[] out, int n) {
+        template.root.evalColumn(refs, out, n);
+    }
+
+    // ---------------- Expression tree ----------------
+
+    /**
+     * A node of the expression tree, evaluated for the cell (x, y) holding the formula.
+     * A columnar node can also be evaluated for many hosts at once, from the values of the references.
+     */
+    abstract static class Node {
+        abstract double eval(Env env, int x, int y);
+
+        boolean isColumnar() { return false; }
+
+        /** Computes this node for n hosts into out[0, n), see Formula.evaluateColumn. */
+        void evalColumn(double[][] refs, double[] out, int n) {
+            throw new UnsupportedOperationException("Not a columnar node");
+        }
+    }
+
+    static final class Num extends Node {
+        final double value;
+        Num(double value) { this.value = value; }
+        @Override
+        double eval(Env env, int x, int y) { return value; }
+        @Override
+        boolean isColumnar() { return true; }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) { Arrays.fill(out, 0, n, value); }
+    }
+
+    static final class Ref extends Node {
+        final int dx, dy; // Offset from the host
+        final int index;  // Of the reference among the distinct references of the formula
+        Ref(int dx, int dy, int index) { this.dx = dx; this.dy = dy; this.index = index; }
+        @Override
+        double eval(Env env, int x, int y) { return env.valueAt(x + dx, y + dy); }
+        @Override
+        boolean isColumnar() { return true; }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) { System.arraycopy(refs[index], 0, out, 0, n); }
+    }
+
+    static final class Neg extends Node {
+        final Node operand;
+        Neg(Node operand) { this.operand = operand; }
+        @Override
+        double eval(Env env, int x, int y) { return -operand.eval(env, x, y); }
+        @Override
+        boolean isColumnar() { return operand.isColumnar(); }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) {
+            operand.evalColumn(refs, out, n);
+            for (int j = 0; j < n; j++) out[j] = -out[j];
+        }
+    }
+
+    static final class Binary extends Node {
+        final char op;
+        final Node left, right;
+        Binary(char op, Node left, Node right) { this.op = op; this.left = left; this.right = right; }
+        @Override
+        double eval(Env env, int x, int y) {
+            double a = left.eval(env, x, y);
+            double b = right.eval(env, x, y);
+            return switch (op) {
+                case '+' -> a + b;
+                case '-' -> a - b;
+                case '*' -> a * b;
+                default -> a / b; // Division by 0 follows double semantics (Infinity / NaN)
+            };
+        }
+        @Override
+        boolean isColumnar() { return left.isColumnar() && right.isColumnar(); }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) {
+            left.evalColumn(refs, out, n);
+            double[] b = new double[n];
+            right.evalColumn(refs, b, n);
+            switch (op) { // One loop per operator, so each loop is branch free
+                case '+' -> { for (int j = 0; j < n; j++) out[j] += b[j]; }
+                case '-' -> { for (int j = 0; j < n; j++) out[j] -= b[j]; }
+                case '*' -> { for (int j = 0; j < n; j++) out[j] *= b[j]; }
+                default -> { for (int j = 0; j < n; j++) out[j] /= b[j]; }
+            }
+        }
+    }
+
+    /**
+     * SUM, COUNT, MIN, MAX or AVG of ranges (answered by the Env) and of expressions.
+     * Every expression argument counts as one number; MIN and MAX of no number are 0, AVG of none is NaN.
+     */
+    static final class Aggregate extends Node {
+        final int function;
+        final int[] ranges; // x1, y1, x2, y2 per range, as offsets from the host
+        final Node[] arguments;
+        Aggregate(int function, int[] ranges, Node[] arguments) {
+            this.function = function;
+            this.ranges = ranges;
+            this.arguments = arguments;
+        }
+        @Override
+        double eval(Env env, int x, int y) {
+            if (function == AVG) return total(env, x, y, SUM) / total(env, x, y, COUNT);
+            double result = total(env, x, y, function);
+            if (Double.isInfinite(result) && (function == MIN || function == MAX)) {
+                return zeroIfNone(result, total(env, x, y, COUNT));
+            }
+            return result;
+        }
+
+        private double total(Env env, int x, int y, int f) {
+            double result = identity(f);
+            for (int i = 0; i < ranges.length; i += 4) {
+                result = combine(f, result, env.aggregate(f, x + ranges[i], y + ranges[i + 1], x + ranges[i + 2], y + ranges[i + 3]));
+            }
+            for (Node argument : arguments) {
+                // An argument is one number. COUNT still evaluates it, so an error in it propagates as in SUM;
+                // the count of AVG, MIN or MAX follows a total which already did.
+                double value = f != COUNT || function == COUNT ? argument.eval(env, x, y) : 1;
+                result = combine(f, result, f == COUNT ? 1 : value);
+            }
+            return result;
+        }
+        @Override
+        boolean isColumnar() {
+            if (ranges.length > 0) return false;
+            for (Node argument : arguments) {
+                if (!argument.isColumnar()) return false;
+            }
+            return true;
+        }
+        /** Without ranges every argument is a number, so MIN and MAX are never of no number. */
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) {
+            int f = function == AVG ? SUM : function;
+            Arrays.fill(out, 0, n, f == COUNT ? arguments.length : identity(f));
+            if (f == COUNT) return;
+            double[] b = new double[n];
+            for (Node argument : arguments) {
+                argument.evalColumn(refs, b, n);
+                switch (f) {
+                    case MIN -> { for (int j = 0; j < n; j++) out[j] = Math.min(out[j], b[j]); }
+                    case MAX -> { for (int j = 0; j < n; j++) out[j] = Math.max(out[j], b[j]); }
+                    default -> { for (int j = 0; j < n; j++) out[j] += b[j]; }
+                }
+            }
+            if (function == AVG) {
+                for (int j = 0; j < n; j++) out[j] /= arguments.length;
+            }
+        }
+    }
+
+    static final class Compare extends Node {
+        final String op;
+        final Node left, right;
+        Compare(String op, Node left, Node right) { this.op = op; this.left = left; this.right = right; }
+        @Override
+        double eval(Env env, int x, int y) {
+            double a = left.eval(env, x, y);
+            double b = right.eval(env, x, y);
+            boolean result = switch (op) {
+                case "<" -> a < b;
+                case ">" -> a > b;
+                case "<=" -> a <= b;
+                case ">=" -> a >= b;
+                case "==" -> a == b;
+                default -> a != b;
+            };
+            return result ? 1 : 0;
+        }
+        @Override
+        boolean isColumnar() { return left.isColumnar() && right.isColumnar(); }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) {
+            left.evalColumn(refs, out, n);
+            double[] b = new double[n];
+            right.evalColumn(refs, b, n);
+            switch (op) {
+                case "<" -> { for (int j = 0; j < n; j++) out[j] = out[j] < b[j] ? 1 : 0; }
+                case ">" -> { for (int j = 0; j < n; j++) out[j] = out[j] > b[j] ? 1 : 0; }
+                case "<=" -> { for (int j = 0; j < n; j++) out[j] = out[j] <= b[j] ? 1 : 0; }
+                case ">=" -> { for (int j = 0; j < n; j++) out[j] = out[j] >= b[j] ? 1 : 0; }
+                case "==" -> { for (int j = 0; j < n; j++) out[j] = out[j] == b[j] ? 1 : 0; }
+                default -> { for (int j = 0; j < n; j++) out[j] = out[j] != b[j] ? 1 : 0; }
+            }
+        }
+    }
+
+    /** IF(condition, then, else): any non zero condition is true, and only the selected branch is evaluated. */
+    static final class If extends Node {
+        final Node condition, then, otherwise;
+        If(Node condition, Node then, Node otherwise) { this.condition = condition; this.then = then; this.otherwise = otherwise; }
+        @Override
+        double eval(Env env, int x, int y) {
+            return condition.eval(env, x, y) != 0 ? then.eval(env, x, y) : otherwise.eval(env, x, y);
+        }
+    }
+
+    /** SIN, COS (of radians) and POW. */
+    static final class Call extends Node {
+        final int function;
+        final Node first, second;
+        Call(int function, Node first, Node second) { this.function = function; this.first = first; this.second = second; }
+        @Override
+        double eval(Env env, int x, int y) {
+            return switch (function) {
+                case SIN -> Math.sin(first.eval(env, x, y));
+                case COS -> Math.cos(first.eval(env, x, y));
+                default -> Math.pow(first.eval(env, x, y), second.eval(env, x, y));
+            };
+        }
+        @Override
+        boolean isColumnar() { return first.isColumnar() && (second == null || second.isColumnar()); }
+        @Override
+        void evalColumn(double[][] refs, double[] out, int n) {
+            first.evalColumn(refs, out, n);
+            switch (function) {
+                case SIN -> { for (int j = 0; j < n; j++) out[j] = Math.sin(out[j]); }
+                case COS -> { for (int j = 0; j < n; j++) out[j] = Math.cos(out[j]); }
+                default -> {
+                    double[] b = new double[n];
+                    second.evalColumn(refs, b, n);
+                    for (int j = 0; j < n; j++) out[j] = Math.pow(out[j], b[j]);
+                }
+            }
+        }
+    }
+
+    // ---------------- Parser ----------------
+
+    /**
+     * A recursive descent parser over the characters of the formula:
+     * expression = sum (comparison sum)?, sum = term (('+'|'-') term)*, term = factor (('*'|'/') factor)*,
+     * factor = '-' factor | number | reference | function '(' argument (',' argument)* ')' | '(' expression ')',
+     * argument = reference ':' reference | expression, where a function is SUM, COUNT, MIN, MAX, AVG (which accept
+     * ranges), IF, SIN, COS or POW, in any case.
+     */
+    private static final class Parser {
+        private final String text;
+        private final char[] chars;
+        private final int hostX, hostY;
+        private int pos;
+        private int[] textStart = new int[4], textEnd = new int[4], textX = new int[4], textY = new int[4];
+        private int textCount;          // References as written (each occurrence)
+        private boolean canonical = true; // All of them written as CellAddress.toRef writes them
+        private int[] refX = new int[4], refY = new int[4];
+        private boolean[] refConditional = new boolean[4];
+        private int refCount;
+        private int branches; // > 0 while parsing an IF branch
+        private int[] ranges = new int[8];
+        private int rangeCount;
+
+        Parser(String text, int start, int hostX, int hostY) {
+            this.text = text;
+            this.chars = text.toCharArray();
+            this.pos = start;
+            this.hostX = hostX;
+            this.hostY = hostY;
+        }
+
+        Node parseExpression() {
+            Node result = parseSum();
+            skipSpaces();
+            for (String op : COMPARISONS) {
+                if (text.startsWith(op, pos)) {
+                    pos += op.length();
+                    return new Compare(op, result, parseSum());
+                }
+            }
+            return result;
+        }
+
+        private Node parseSum() {
+            Node result = parseTerm();
+            while (peek() == '+' || peek() == '-') {
+                char op = chars[pos++];
+                result = new Binary(op, result, parseTerm());
+            }
+            return result;
+        }
+
+        private Node parseTerm() {
+            Node result = parseFactor();
+            while (peek() == '*' || peek() == '/') {
+                char op = chars[pos++];
+                result = new Binary(op, result, parseFactor());
+            }
+            return result;
+        }
+
+        private Node parseFactor() {
+            char c = peek();
+            if (c == '-') {
+                pos++;
+                return new Neg(parseFactor());
+            }
+            if (c == '(') {
+                pos++;
+                Node inner = parseExpression();
+                if (peek() != ')') {
+                    throw new IllegalArgumentException("Mismatched parentheses");
+                }
+                pos++;
+                return inner;
+            }
+            if (Lexer.isDigit(c) || c == '.') {
+                return parseNumber();
+            }
+            if (Lexer.isLetter(c)) {
+                int name = Lexer.skipLetters(text, pos, chars.length);
+                return name < chars.length && chars[name] == '(' ? parseFunction(name) : parseReference();
+            }
+            throw new IllegalArgumentException("Unexpected token at position " + pos);
+        }
+
+        private Node parseNumber() {
+            int start = pos;
+            while (pos < chars.length && (Lexer.isDigit(chars[pos]) || chars[pos] == '.')) {
+                pos++;
+            }
+            return new Num(Double.parseDouble(new String(chars, start, pos - start)));
+        }
+
+        private Node parseReference() {
+            long address = scanAddress();
+            int dx = CellAddress.x(address) - hostX, dy = CellAddress.y(address) - hostY;
+            return new Ref(dx, dy, addReference(dx, dy));
+        }
+
+        /** Scans the cell reference at pos, and records where it is written. */
+        private long scanAddress() {
+            int start = pos;
+            int end = Lexer.scanReference(text, start, chars.length);
+            long address = end < 0 ? CellAddress.NONE : CellAddress.parse(text, start, end);
+            if (address == CellAddress.NONE || (end < chars.length && Lexer.isLetter(chars[end]))) {
+                throw new IllegalArgumentException("Invalid cell reference at position " + start);
+            }
+            pos = end;
+            if (textCount == textStart.length) {
+                textStart = Arrays.copyOf(textStart, textCount * 2);
+                textEnd = Arrays.copyOf(textEnd, textCount * 2);
+                textX = Arrays.copyOf(textX, textCount * 2);
+                textY = Arrays.copyOf(textY, textCount * 2);
+            }
+            textStart[textCount] = start;
+            textEnd[textCount] = end;
+            textX[textCount] = CellAddress.x(address) - hostX;
+            textY[textCount] = CellAddress.y(address) - hostY;
+            textCount++;
+            canonical &= CellAddress.isCanonical(text, start, end);
+            return address;
+        }
+
+        /** @return the text before, between and after the references as written. */
+        String[] segments() {
+            String[] segments = new String[textCount + 1];
+            int from = 0;
+            for (int i = 0; i < textCount; i++) {
+                segments[i] = text.substring(from, textStart[i]);
+                from = textEnd[i];
+            }
+            segments[textCount] = text.substring(from);
+            return segments;
+        }
+
+        /** Parses a function call, its name is chars[pos, nameEnd) and chars[nameEnd] is '('. */
+        private Node parseFunction(int nameEnd) {
+            int function = -1, length = nameEnd - pos;
+            for (int f = 0; f < FUNCTIONS.length; f++) {
+                if (FUNCTIONS[f].length() == length && text.regionMatches(true, pos, FUNCTIONS[f], 0, length)) {
+                    function = f;
+                }
+            }
+            if (function < 0) {
+                throw new IllegalArgumentException("Unknown function at position " + pos);
+            }
+            pos = nameEnd + 1;
+            if (ARITY[function] >= 0) return parseCall(function);
+            int firstRange = rangeCount;
+            List<Node> arguments = new ArrayList<>();
+            while (true) {
+                if (!parseRange()) arguments.add(parseExpression());
+                if (peek() != ',') break;
+                pos++;
+            }
+            if (peek() != ')') {
+                throw new IllegalArgumentException("Mismatched parentheses");
+            }
+            pos++;
+            return new Aggregate(function, Arrays.copyOfRange(ranges, firstRange * 4, rangeCount * 4),
+                    arguments.toArray(new Node[0]));
+        }
+
+        /** Parses the arguments of IF, SIN, COS or POW (pos is after the '('). */
+        private Node parseCall(int function) {
+            Node[] arguments = new Node[ARITY[function]];
+            for (int i = 0; i < arguments.length; i++) {
+                if (i > 0) {
+                    if (peek() != ',') throw new IllegalArgumentException("Expected " + arguments.length + " arguments");
+                    pos++;
+                }
+                if (function == IF && i == 1) branches++;
+                arguments[i] = parseExpression();
+            }
+            if (function == IF) branches--;
+            if (peek() != ')') {
+                throw new IllegalArgumentException("Mismatched parentheses");
+            }
+            pos++;
+            return switch (function) {
+                case IF -> new If(arguments[0], arguments[1], arguments[2]);
+                case POW -> new Call(function, arguments[0], arguments[1]);
+                default -> new Call(function, arguments[0], null);
+            };
+        }
+
+        /**
+         * Parses a range (e.g., A1:B10) if there is one at pos, normalized so its first corner is the top left one.
+         * @return false (and pos is unchanged) if there is none.
+         */
+        private boolean parseRange() {
+            skipSpaces();
+            int end = Lexer.scanReference(text, pos, chars.length);
+            if (end < 0) return false;
+            int colon = Lexer.skipSpaces(text, end, chars.length);
+            if (colon == chars.length || chars[colon] != ':') return false;
+            long first = scanAddress();
+            pos = colon + 1;
+            skipSpaces();
+            long last = scanAddress();
+            if (rangeCount * 4 == ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            int i = 4 * rangeCount++;
+            ranges[i] = Math.min(CellAddress.x(first), CellAddress.x(last)) - hostX;
+            ranges[i + 1] = Math.min(CellAddress.y(first), CellAddress.y(last)) - hostY;
+            ranges[i + 2] = Math.max(CellAddress.x(first), CellAddress.x(last)) - hostX;
+            ranges[i + 3] = Math.max(CellAddress.y(first), CellAddress.y(last)) - hostY;
+            return true;
+        }
+
+        /** @return the index of the reference among the distinct ones. */
+        private int addReference(int x, int y) {
+            for (int i = 0; i < refCount; i++) {
+                if (refX[i] == x && refY[i] == y) {
+                    refConditional[i] &= branches > 0;
+                    return i;
+                }
+            }
+            if (refCount == refX.length) {
+                refX = Arrays.copyOf(refX, refCount * 2);
+                refY = Arrays.copyOf(refY, refCount * 2);
+                refConditional = Arrays.copyOf(refConditional, refCount * 2);
+            }
+            refX[refCount] = x;
+            refY[refCount] = y;
+            refConditional[refCount] = branches > 0;
+            return refCount++;
+        }
+
+        /** Skips white spaces and returns the next character (or 0 at the end of the formula). */
+        private char peek() {
+            skipSpaces();
+            return pos < chars.length ? chars[pos] : 0;
+        }
+
+        void skipSpaces() {
+            pos = Lexer.skipSpaces(text, pos, chars.length);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The second tier of formula evaluation: translates the expression tree of a formula into JVM bytecode and
+ * loads it as a hidden class, so the JIT compiles each hot formula like hand-written Java code - the arithmetic
+ * is straight-line code over doubles and every reference is a direct call env.valueAt(x + dx, y + dy) with
+ * constant offsets from the host cell (x, y), instead of a virtual call per node of the tree.
+ * <p>
+ * The class file is written by hand (there is no bytecode library in this project): a constant pool, a
+ * constructor and evaluate(Env, int, int), with a StackMapTable for the branches of IF and of the comparisons.
+ * Branch targets only ever have doubles on the operand stack, which keeps the frames simple.
+ * Used by Formula once a formula was evaluated Formula.COMPILE_THRESHOLD times.
+ */
+final class FormulaCompiler {
+    private FormulaCompiler() {}
+
+    private static final String NAME = "FormulaCode", CODE = "Formula$Code", ENV = "Formula$Env";
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Compiles an expression tree into a hidden class.
+     * @return an instance of the compiled code, or null if the tree can not be compiled (e.g., it is too large
+     * for a method), in which case the formula simply stays interpreted.
+     */
+    static Formula.Code compile(Formula.Node root) {
+        try {
+            byte[] bytes = new ClassWriter().write(root);
+            MethodHandles.Lookup code = LOOKUP.defineHiddenClass(bytes, true);
+            return (Formula.Code) code.findConstructor(code.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            if (e instanceof Error && !(e instanceof LinkageError)) throw (Error) e; // e.g., OutOfMemoryError
+            return null;
+        }
+    }
+
+    // Opcodes
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14;
+    private static final int DCONST_0 = 0x0e, DCONST_1 = 0x0f, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ILOAD_2 = 0x1c, ILOAD_3 = 0x1d;
+    private static final int IADD = 0x60, POP2 = 0x58;
+    private static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, DCMPL = 0x97, DCMPG = 0x98;
+    private static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e, GOTO = 0xa7;
+    private static final int DRETURN = 0xaf, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+
+    /**
+     * Writes the class file of one formula. Not thread safe, one writer per class.
+     */
+    private static final class ClassWriter {
+        private final Bytes pool = new Bytes();
+        private final Map<String, Integer> constants = new HashMap<>();
+        private int poolCount = 1;
+        private final Bytes code = new Bytes();
+        private int stack, maxStack;                                 // In slots (a double takes 2)
+        private final TreeMap<Integer, Integer> frames = new TreeMap<>(); // Branch target -> doubles on the stack
+
+        byte[] write(Formula.Node root) {
+            int thisClass = classRef(NAME), object = classRef("java/lang/Object"), codeInterface = classRef(CODE);
+            int init = utf8("<init>"), voidDescriptor = utf8("()V"), codeAttribute = utf8("Code");
+            int evaluate = utf8("evaluate"), evaluateDescriptor = utf8("(L" + ENV + ";II)D");
+            int objectInit = member(10, "java/lang/Object", "<init>", "()V");
+
+            emit(root);
+            code.u1(DRETURN);
+            int stackMapTable = frames.isEmpty() ? 0 : utf8("StackMapTable");
+            int env = frames.isEmpty() ? 0 : classRef(ENV);
+            if (code.length() >= 0xFFFF) throw new IllegalStateException("Formula too large to compile");
+
+            Bytes out = new Bytes();
+            out.u4(0xCAFEBABE);
+            out.u2(0);
+            out.u2(52); // Java 8 class files: verified with stack map frames
+            out.u2(poolCount);
+            out.bytes(pool);
+            out.u2(0x0030); // ACC_FINAL | ACC_SUPER
+            out.u2(thisClass);
+            out.u2(object);
+            out.u2(1);
+            out.u2(codeInterface);
+            out.u2(0); // fields
+            out.u2(2); // methods
+
+            out.u2(0x0001); // public <init>()V
+            out.u2(init);
+            out.u2(voidDescriptor);
+            out.u2(1);
+            out.u2(codeAttribute);
+            out.u4(2 + 2 + 4 + 5 + 2 + 2);
+            out.u2(1); // max stack
+            out.u2(1); // max locals
+            out.u4(5);
+            out.u1(ALOAD_0);
+            out.u1(INVOKESPECIAL);
+            out.u2(objectInit);
+            out.u1(RETURN);
+            out.u2(0);
+            out.u2(0);
+
+            Bytes frameTable = new Bytes();
+            if (!frames.isEmpty()) {
+                frameTable.u2(frames.size());
+                int previous = -1;
+                for (Map.Entry<Integer, Integer> frame : frames.entrySet()) {
+                    frameTable.u1(255); // full_frame
+                    frameTable.u2(frame.getKey() - previous - 1);
+                    previous = frame.getKey();
+                    frameTable.u2(4);
+                    frameTable.u1(7); // Object_variable_info: this
+                    frameTable.u2(thisClass);
+                    frameTable.u1(7); // Object_variable_info: env
+                    frameTable.u2(env);
+                    frameTable.u1(1); // Integer_variable_info: x
+                    frameTable.u1(1); // Integer_variable_info: y
+                    frameTable.u2(frame.getValue());
+                    for (int i = 0; i < frame.getValue(); i++) frameTable.u1(3); // Double_variable_info
+                }
+            }
+            out.u2(0x0001); // public double evaluate(Env, int, int)
+            out.u2(evaluate);
+            out.u2(evaluateDescriptor);
+            out.u2(1);
+            out.u2(codeAttribute);
+            out.u4(2 + 2 + 4 + code.length() + 2 + 2 + (frames.isEmpty() ? 0 : 6 + frameTable.length()));
+            out.u2(maxStack);
+            out.u2(4); // max locals: this, env, x, y
+            out.u4(code.length());
+            out.bytes(code);
+            out.u2(0); // exception table
+            out.u2(frames.isEmpty() ? 0 : 1);
+            if (!frames.isEmpty()) {
+                out.u2(stackMapTable);
+                out.u4(frameTable.length());
+                out.bytes(frameTable);
+            }
+            out.u2(0); // class attributes
+            return out.toByteArray();
+        }
+
+        // ---------------- Code ----------------
+
+        private void emit(Formula.Node node) {
+            if (node instanceof Formula.Num num) {
+                pushDouble(num.value);
+            } else if (node instanceof Formula.Ref ref) {
+                op(ALOAD_1, 1);
+                pushCoordinate(ILOAD_2, ref.dx);
+                pushCoordinate(ILOAD_3, ref.dy);
+                invokeInterface(ENV, "valueAt", "(II)D", 3, -3 + 2);
+            } else if (node instanceof Formula.Neg neg) {
+                emit(neg.operand);
+                op(DNEG, 0);
+            } else if (node instanceof Formula.Binary binary) {
+                emit(binary.left);
+                emit(binary.right);
+                op(switch (binary.op) {
+                    case '+' -> DADD;
+                    case '-' -> DSUB;
+                    case '*' -> DMUL;
+                    default -> DDIV;
+                }, -2);
+            } else if (node instanceof Formula.Compare compare) {
+                emit(compare.left);
+                emit(compare.right);
+                // dcmpg makes NaN "greater" and dcmpl makes it "less", so every comparison with NaN is false but !=
+                switch (compare.op) {
+                    case "<" -> select(DCMPG, IFLT);
+                    case "<=" -> select(DCMPG, IFLE);
+                    case ">" -> select(DCMPL, IFGT);
+                    case ">=" -> select(DCMPL, IFGE);
+                    case "==" -> select(DCMPL, IFEQ);
+                    default -> select(DCMPL, IFNE);
+                }
+            } else if (node instanceof Formula.If branch) {
+                emit(branch.condition);
+                op(DCONST_0, 2);
+                op(DCMPL, -3);              // 0 iff the condition is 0 (NaN counts as true, as in the interpreter)
+                int toElse = jump(IFEQ, -1);
+                emit(branch.then);
+                int toEnd = jump(GOTO, 0);
+                stack -= 2;                 // The else branch starts from the stack the then branch started from
+                target(toElse);
+                emit(branch.otherwise);
+                target(toEnd);
+            } else if (node instanceof Formula.Call call) {
+                emit(call.first);
+                if (call.second != null) emit(call.second);
+                switch (call.function) {
+                    case Formula.SIN -> invokeStatic("java/lang/Math", "sin", "(D)D", 0);
+                    case Formula.COS -> invokeStatic("java/lang/Math", "cos", "(D)D", 0);
+                    default -> invokeStatic("java/lang/Math", "pow", "(DD)D", -2);
+                }
+            } else if (node instanceof Formula.Aggregate aggregate) {
+                emitAggregate(aggregate);
+            } else {
+                throw new IllegalStateException("Unknown node " + node.getClass());
+            }
+        }
+
+        /** The Aggregate node of Formula, unrolled: its ranges and arguments are known when it is compiled. */
+        private void emitAggregate(Formula.Aggregate aggregate) {
+            if (aggregate.function == Formula.AVG) {
+                emitTotal(aggregate, Formula.SUM);
+                emitTotal(aggregate, Formula.COUNT);
+                op(DDIV, -2);
+            } else if (aggregate.function == Formula.MIN || aggregate.function == Formula.MAX) {
+                emitTotal(aggregate, aggregate.function);
+                emitTotal(aggregate, Formula.COUNT);
+                invokeStatic("Formula", "zeroIfNone", "(DD)D", -2);
+            } else {
+                emitTotal(aggregate, aggregate.function);
+            }
+        }
+
+        private void emitTotal(Formula.Aggregate aggregate, int function) {
+            pushDouble(Formula.identity(function));
+            int[] ranges = aggregate.ranges;
+            for (int i = 0; i < ranges.length; i += 4) {
+                op(ALOAD_1, 1);
+                pushInt(function);
+                for (int j = 0; j < 4; j++) pushCoordinate(j % 2 == 0 ? ILOAD_2 : ILOAD_3, ranges[i + j]);
+                invokeInterface(ENV, "aggregate", "(IIIII)D", 6, -6 + 2);
+                combine(function);
+            }
+            for (Formula.Node argument : aggregate.arguments) {
+                if (function != Formula.COUNT) {
+                    emit(argument);
+                } else {
+                    if (aggregate.function == Formula.COUNT) {
+                        emit(argument); // For its errors only, as in Formula.Aggregate
+                        op(POP2, -2);
+                    }
+                    op(DCONST_1, 2);
+                }
+                combine(function);
+            }
+        }
+
+        private void combine(int function) {
+            switch (function) {
+                case Formula.MIN -> invokeStatic("java/lang/Math", "min", "(DD)D", -2);
+                case Formula.MAX -> invokeStatic("java/lang/Math", "max", "(DD)D", -2);
+                default -> op(DADD, -2);
+            }
+        }
+
+        /** Compares the two doubles on the stack and leaves 1 if the branch condition holds, else 0. */
+        private void select(int compare, int branch) {
+            op(compare, -3);
+            int toTrue = jump(branch, -1);
+            op(DCONST_0, 2);
+            int toEnd = jump(GOTO, 0);
+            stack -= 2;
+            target(toTrue);
+            op(DCONST_1, 2);
+            target(toEnd);
+        }
+
+        private void op(int opcode, int stackChange) {
+            code.u1(opcode);
+            adjust(stackChange);
+        }
+
+        private void adjust(int stackChange) {
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /** Emits a branch with a placeholder offset. @return its position, to be given to target. */
+        private int jump(int opcode, int stackChange) {
+            int at = code.length();
+            code.u1(opcode);
+            code.u2(0);
+            adjust(stackChange);
+            return at;
+        }
+
+        /** Makes the branch at the given position jump here, and records the frame of this target. */
+        private void target(int branch) {
+            int offset = code.length() - branch;
+            if (offset > Short.MAX_VALUE) throw new IllegalStateException("Branch too long");
+            code.patch(branch + 1, offset);
+            Integer previous = frames.put(code.length(), stack / 2);
+            if (previous != null && previous != stack / 2) throw new IllegalStateException("Inconsistent frames");
+        }
+
+        /** Pushes the host coordinate (loaded by the given iload) plus an offset. */
+        private void pushCoordinate(int load, int offset) {
+            op(load, 1);
+            if (offset != 0) {
+                pushInt(offset);
+                op(IADD, -1);
+            }
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                code.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                code.u2(value);
+            } else {
+                op(LDC_W, 1);
+                code.u2(constant("I" + value, 3, out -> out.u4(value), 1));
+            }
+        }
+
+        private void pushDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (bits == 0L) {
+                op(DCONST_0, 2);
+            } else if (value == 1.0) {
+                op(DCONST_1, 2);
+            } else {
+                op(LDC2_W, 2);
+                code.u2(constant("D" + bits, 6, out -> out.u8(bits), 2));
+            }
+        }
+
+        private void invokeStatic(String owner, String name, String descriptor, int stackChange) {
+            code.u1(INVOKESTATIC);
+            code.u2(member(10, owner, name, descriptor));
+            adjust(stackChange);
+        }
+
+        private void invokeInterface(String owner, String name, String descriptor, int argumentSlots, int stackChange) {
+            code.u1(INVOKEINTERFACE);
+            code.u2(member(11, owner, name, descriptor));
+            code.u1(argumentSlots);
+            code.u1(0);
+            adjust(stackChange);
+        }
+
+        // ---------------- Constant pool ----------------
+
+        private interface Entry {
+            void write(Bytes out);
+        }
+
+        private int constant(String key, int tag, Entry entry, int slots) {
+            Integer index = constants.get(key);
+            if (index != null) return index;
+            pool.u1(tag);
+            entry.write(pool);
+            constants.put(key, poolCount);
+            poolCount += slots;
+            if (poolCount > 0xFFFF) throw new IllegalStateException("Constant pool overflow");
+            return poolCount - slots;
+        }
+
+        private int utf8(String text) {
+            return constant("U" + text, 1, out -> out.utf8(text), 1); // ASCII names only
+        }
+
+        private int classRef(String name) {
+            int utf = utf8(name);
+            return constant("C" + name, 7, out -> out.u2(utf), 1);
+        }
+
+        /** A Methodref (tag 10) or an InterfaceMethodref (tag 11). */
+        private int member(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner), nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+            int nameAndType = constant("N" + name + descriptor, 12, out -> {
+                out.u2(nameIndex);
+                out.u2(descriptorIndex);
+            }, 1);
+            return constant(tag + owner + "." + name + descriptor, tag, out -> {
+                out.u2(ownerClass);
+                out.u2(nameAndType);
+            }, 1);
+        }
+    }
+
+    /** A growable big endian byte buffer. */
+    private static final class Bytes {
+        private byte[] data = new byte[256];
+        private int length;
+
+        int length() {
+            return length;
+        }
+
+        void u1(int b) {
+            if (length == data.length) data = Arrays.copyOf(data, length * 2);
+            data[length++] = (byte) b;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void u8(long value) {
+            u4((int) (value >>> 32));
+            u4((int) value);
+        }
+
+        void utf8(String ascii) {
+            u2(ascii.length());
+            for (int i = 0; i < ascii.length(); i++) u1(ascii.charAt(i));
+        }
+
+        void bytes(Bytes other) {
+            for (int i = 0; i < other.length; i++) u1(other.data[i]);
+        }
+
+        void patch(int at, int value) {
+            data[at] = (byte) (value >>> 8);
+            data[at + 1] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+}
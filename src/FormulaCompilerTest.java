@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaCompilerTest {
+
+    private static final String[] FORMULAS = {
+            "=2+3*4", "=-(A1-B2)/0", "=0/0", "=-0", "=1", "=0.1+1234567.25",
+            "=A1*A1-C3", "=ZZ70000+A40000", "=A1<B2", "=A1<=A1", "=B2>A1", "=A1>=B2", "=A1==A1", "=A1!=A1",
+            "=IF(A1 > 2, B1 + 1, IF(B1 < 0, 3, -C1)) * 2", "=5 + IF(A1, IF(B1, 1, 2), 3)",
+            "=SIN(A1) + COS(B2) * POW(2, A1)", "=SUM(A1:B3) - COUNT(A1:B3, 4)", "=AVG(A1:A3, 10)",
+            "=MIN(A1:C2, B1) + MAX(A2, 7)", "=MAX(A1:A2) + MIN(1, 2, -3)", "=COUNT(A1, 1/0, B2 * 2)",
+    };
+
+    /** Environments where a cell holds some function of its coordinates, including NaN and 0. */
+    private static final Formula.Env[] ENVS = {
+            (x, y) -> 10 * x + y,
+            (x, y) -> y - 2 * x,
+            (x, y) -> (x + y) % 2 == 0 ? 0 : -1.5,
+            (x, y) -> x == 0 ? Double.NaN : x,
+    };
+
+    @Test
+    public void testCompiledCodeMatchesTheInterpreter() {
+        for (String text : FORMULAS) {
+            Formula interpreted = Formula.compile(text), compiled = Formula.compile(text);
+            assertTrue(compiled.compileNow(), "Could not compile " + text);
+            assertTrue(compiled.isCompiled());
+            assertFalse(interpreted.isCompiled());
+            for (Formula.Env env : ENVS) {
+                assertEquals(interpreted.evaluate(env), compiled.evaluate(env), text);
+            }
+        }
+    }
+
+    @Test
+    public void testHotFormulasAreCompiled() {
+        Formula formula = Formula.compile("=IF(A1 > 0, A1 * 2, 0)");
+        Formula.Env env = (x, y) -> 21;
+        for (int i = 1; i < Formula.COMPILE_THRESHOLD; i++) {
+            assertEquals(42.0, formula.evaluate(env));
+        }
+        assertFalse(formula.isCompiled());
+        assertEquals(42.0, formula.evaluate(env));
+        assertTrue(formula.isCompiled());
+        assertEquals(42.0, formula.evaluate(env));
+    }
+
+    @Test
+    public void testCompiledFormulasInASheet() {
+        Ex2Sheet sheet = new Ex2Sheet(5, 5);
+        sheet.set(0, 0, "1");
+        sheet.set(1, 0, "=IF(A0 > 0, A0 * 2, B1)");
+        sheet.set(1, 1, "3");
+        for (int v = 1; v <= Formula.COMPILE_THRESHOLD + 10; v++) {
+            sheet.set(0, 0, Integer.toString(v % 7 - 3));
+        }
+        assertTrue(((SCell) sheet.get(1, 0)).getFormula().isCompiled());
+        int last = (Formula.COMPILE_THRESHOLD + 10) % 7 - 3;
+        assertEquals(Double.toString(last > 0 ? last * 2 : 3), sheet.value(1, 0));
+        sheet.set(1, 1, "x");
+        sheet.set(0, 0, "-1");
+        assertEquals(Ex2Utils.ERR_FORM, sheet.value(1, 0));
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The formulas of a sheet, shared by their relative form: "=A0*B0" in C0 and "=A7*B7" in C7 both multiply the
+ * two cells to their left, so they share one compiled template and each cell only holds its coordinates
+ * (see Formula.at). The relative form of a text is found by a scan with the Lexer, so a filled down column
+ * is parsed once, not once per cell.
+ * <p>
+ * Only shareable formulas (whose text the template rebuilds exactly) are kept, the least recently used
+ * template is dropped beyond CAPACITY templates.
+ */
+public class FormulaTemplates {
+    private static final int CAPACITY = 4096;
+    private static final char SEPARATOR = '\0'; // Around the offsets of a reference in a key
+
+    private final Map<String, Formula> templates = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Formula> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private final StringBuilder key = new StringBuilder();
+
+    /**
+     * Compiles the formula text of the cell (x, y), or places a known template with the same relative form there.
+     * @throws IllegalArgumentException if the text is not a well formed formula.
+     */
+    public Formula compile(String text, int x, int y) {
+        String relative = relativeForm(text, x, y);
+        Formula template = relative == null ? null : templates.get(relative);
+        if (template != null) return template.at(x, y);
+        Formula formula = Formula.compile(text, x, y);
+        if (relative != null && formula.isShareable() && text.equals(formula.toText())) {
+            templates.put(relative, formula);
+        }
+        return formula;
+    }
+
+    /**
+     * @return the number of templates kept.
+     */
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * @return the text with each reference replaced by its offset from (x, y), or null if a reference is not
+     * written as toRef writes it (its text could not be rebuilt from the offsets).
+     */
+    private String relativeForm(String text, int x, int y) {
+        StringBuilder relative = key;
+        relative.setLength(0);
+        int n = text.length(), literal = 0, i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == SEPARATOR) return null;
+            if (!Lexer.isLetter(c)) {
+                i = Lexer.isDigit(c) ? Lexer.skipDigits(text, i, n) : i + 1;
+                continue;
+            }
+            int digits = Lexer.skipLetters(text, i, n), end = Lexer.skipDigits(text, digits, n);
+            if (end == digits) { // A function name
+                i = digits;
+                continue;
+            }
+            long address = CellAddress.parse(text, i, end);
+            if (address == CellAddress.NONE || !CellAddress.isCanonical(text, i, end)) return null;
+            relative.append(text, literal, i).append(SEPARATOR)
+                    .append(CellAddress.x(address) - x).append(',').append(CellAddress.y(address) - y).append(SEPARATOR);
+            literal = i = end;
+        }
+        return relative.append(text, literal, n).toString();
+    }
+}
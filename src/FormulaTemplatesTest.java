@@ -0,0 +1,31 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaTemplatesTest {
+
+    @Test
+    public void testFilledDownFormulasShareOneTemplate() {
+        FormulaTemplates templates = new FormulaTemplates();
+        Formula first = templates.compile("=A0*B0 + SUM(A0:B2)", 2, 0);
+        Formula other = templates.compile("=A7*B7 + SUM(A7:B9)", 2, 7);
+        assertEquals(1, templates.size());
+        assertEquals("=A7*B7 + SUM(A7:B9)", other.toText());
+        Formula.Env env = (x, y) -> x + y;
+        assertEquals(7.0 * 8 + (7 + 8 + 9) + (8 + 9 + 10), other.evaluate(env), 0.001);
+        assertEquals(0.0 + (0 + 1 + 2) + (1 + 2 + 3), first.evaluate(env), 0.001);
+
+        templates.compile("=A0*B1", 2, 0);                // Another relative form
+        templates.compile("=a7*B7", 2, 7);                 // Not shareable
+        templates.compile("=A0*B0", 2, 0);                 // No range: another text
+        assertEquals(3, templates.size());
+    }
+
+    @Test
+    public void testMalformedFormulas() {
+        FormulaTemplates templates = new FormulaTemplates();
+        assertThrows(IllegalArgumentException.class, () -> templates.compile("=A0+", 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> templates.compile("=FOO(A0)", 1, 0));
+        assertEquals(0, templates.size());
+    }
+}
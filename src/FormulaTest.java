@@ -0,0 +1,167 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaTest {
+
+    /** An environment in which every cell (x,y) holds the value 10*x+y. */
+    private static final Formula.Env GRID = (x, y) -> 10 * x + y;
+
+    @Test
+    public void testCompileAndEvaluateArithmetic() {
+        assertEquals(5.0, Formula.compile("=2+3").evaluate(GRID), 0.001);
+        assertEquals(14.0, Formula.compile("=2+3*4").evaluate(GRID), 0.001);
+        assertEquals(20.0, Formula.compile("=(2+3)*4").evaluate(GRID), 0.001);
+        assertEquals(0.5, Formula.compile("= 1 / 2 ").evaluate(GRID), 0.001);
+    }
+
+    @Test
+    public void testUnaryMinus() {
+        assertEquals(-15.0, Formula.compile("=-15").evaluate(GRID), 0.001);
+        assertEquals(5.0, Formula.compile("=--5").evaluate(GRID), 0.001);
+        assertEquals(12.0, Formula.compile("=-3*-4").evaluate(GRID), 0.001);
+        assertEquals(-5.0, Formula.compile("=-(2+3)").evaluate(GRID), 0.001);
+    }
+
+    @Test
+    public void testReferencesAreResolvedAtCompileTime() {
+        assertEquals(12.0, Formula.compile("=B2").evaluate(GRID), 0.001);
+        assertEquals(12.0, Formula.compile("=b2").evaluate(GRID), 0.001);
+        assertEquals(23.0, Formula.compile("=A1+c2").evaluate(GRID), 0.001);
+    }
+
+    @Test
+    public void testMultiLetterColumnsAndLargeRows() {
+        Formula f = Formula.compile("=AA1+zz250000");
+        assertEquals(2, f.getReferenceCount());
+        assertEquals(26, f.getReferenceX(0));
+        assertEquals(1, f.getReferenceY(0));
+        assertEquals(701, f.getReferenceX(1));
+        assertEquals(250000, f.getReferenceY(1));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=A1B2"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=A99999999999"));
+    }
+
+    @Test
+    public void testRangesAndAggregates() {
+        Formula f = Formula.compile("=SUM(B3:A1)");
+        assertEquals(0, f.getReferenceCount());
+        assertEquals(1, f.getRangeCount());
+        assertEquals(0, f.getRangeX1(0));
+        assertEquals(1, f.getRangeY1(0));
+        assertEquals(1, f.getRangeX2(0));
+        assertEquals(3, f.getRangeY2(0));
+        assertEquals(42.0, f.evaluate(GRID), 0.001);              // 1+2+3 + 11+12+13
+        assertEquals(6.0, Formula.compile("=count(A1:B3)").evaluate(GRID), 0.001);
+        assertEquals(7.0, Formula.compile("=Avg(A1:B3)").evaluate(GRID), 0.001);
+        assertEquals(-1.0, Formula.compile("=MIN(A1:B3, -1)").evaluate(GRID), 0.001);
+        assertEquals(22.0, Formula.compile("=MAX(A1:B3, C1)+1").evaluate(GRID), 0.001);
+        assertEquals(8.0, Formula.compile("=SUM(1, 2*A2, A1:A2) ").evaluate(GRID), 0.001);
+    }
+
+    @Test
+    public void testMalformedFunctions() {
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=SUM()"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=SUM(A1:A2"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=TOTAL(A1:A2)"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=A1:A2"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=SUM(A1:)"));
+    }
+
+    @Test
+    public void testComparisonsAndFunctions() {
+        assertEquals(1.0, Formula.compile("=A1<A2").evaluate(GRID), 0.001);
+        assertEquals(0.0, Formula.compile("=A1 >= A2").evaluate(GRID), 0.001);
+        assertEquals(1.0, Formula.compile("=2*A1==A2").evaluate(GRID), 0.001);
+        assertEquals(6.0, Formula.compile("=(A3!=A2)+5").evaluate(GRID), 0.001);
+        assertEquals(1024.0, Formula.compile("=pow(2, A1*10)").evaluate(GRID), 0.001);
+        assertEquals(1.0, Formula.compile("=SIN(0)+Cos(0)").evaluate(GRID), 0.001);
+        assertEquals(12.0, Formula.compile("=IF(A1<=A2, B2, B3)").evaluate(GRID), 0.001);
+        assertEquals(13.0, Formula.compile("=if(A1>A2, B2, IF(1, B3, B4))").evaluate(GRID), 0.001);
+    }
+
+    @Test
+    public void testIfEvaluatesOnlyTheSelectedBranch() {
+        java.util.List<Integer> read = new java.util.ArrayList<>();
+        Formula.Env env = (x, y) -> {
+            read.add(10 * x + y);
+            return 10 * x + y;
+        };
+        Formula f = Formula.compile("=IF(A1 > 0, B1 + B2, C1 * A1)");
+        assertEquals(23.0, f.evaluate(env), 0.001);
+        assertEquals(java.util.List.of(1, 11, 12), read);
+        assertFalse(f.isConditionalReference(0));  // A1 is read by the condition too
+        assertTrue(f.isConditionalReference(1));
+        assertTrue(f.isConditionalReference(3));
+        assertTrue(f.hasConditionalReferences());
+        assertFalse(Formula.compile("=POW(A1, B1)").hasConditionalReferences());
+    }
+
+    @Test
+    public void testMalformedFunctionCalls() {
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=IF(A1, 2)"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=SIN(1, 2)"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=POW(A1:A2, 2)"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=1 < 2 < 3"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=1 = 2"));
+    }
+
+    @Test
+    public void testFormulasMovedToAnotherCell() {
+        Formula.Env env = (x, y) -> 10 * x + y;
+        Formula f = Formula.compile("=A0*2 + SUM(B0:B3)", 2, 0);
+        assertTrue(f.isShareable());
+        assertEquals("=A0*2 + SUM(B0:B3)", f.toText());
+        Formula moved = f.at(2, 5);
+        assertEquals("=A5*2 + SUM(B5:B8)", moved.toText());
+        assertEquals(0, moved.getReferenceX(0));
+        assertEquals(5, moved.getReferenceY(0));
+        assertEquals(5, moved.getRangeY1(0));
+        assertEquals(8, moved.getRangeY2(0));
+        assertEquals(10.0 + 4 * 10 + 5 + 6 + 7 + 8, moved.evaluate(env), 0.001);
+        assertEquals(0.0 + 40 + 6, f.evaluate(env), 0.001);   // The original keeps its host
+
+        assertFalse(Formula.compile("=a0*2").isShareable());     // Not written as toRef writes it
+        assertFalse(Formula.compile("=A01").isShareable());
+        assertNull(Formula.compile("=a0").toText());
+        assertEquals("=SIN(1)", Formula.compile("=SIN(1)", 3, 3).at(0, 0).toText());
+    }
+
+    @Test
+    public void testColumnEvaluationMatchesTheTree() {
+        String[] columnar = {"=A0*2+1", "=-(A0-B1)/0", "=1", "=SIN(A0) + COS(B0) * POW(2, A0)",
+                "=A0 <= B0", "=A0 != A0", "=MIN(A0, -B0) + MAX(B1, 7) + AVG(A0, B0, 1) + COUNT(A0, 1) + SUM(-0)"};
+        Formula.Env env = (x, y) -> y % 3 == 0 ? x - y : 0.5 * y;
+        int n = 50;
+        for (String text : columnar) {
+            Formula template = Formula.compile(text, 2, 0);
+            assertTrue(template.isColumnar(), text);
+            double[][] refs = new double[template.getReferenceCount()][n];
+            for (int j = 0; j < n; j++) {
+                Formula formula = template.at(2, j);
+                assertTrue(formula.sharesTemplate(template));
+                for (int i = 0; i < refs.length; i++) {
+                    refs[i][j] = env.valueAt(formula.getReferenceX(i), formula.getReferenceY(i));
+                }
+            }
+            double[] out = new double[n];
+            template.evaluateColumn(refs, out, n);
+            for (int j = 0; j < n; j++) {
+                assertEquals(template.at(2, j).evaluate(env), out[j], text);
+            }
+        }
+        assertFalse(Formula.compile("=IF(A0, 1, 2)").isColumnar());
+        assertFalse(Formula.compile("=SUM(A0:A3)").isColumnar());
+        assertFalse(Formula.compile("=A0").sharesTemplate(Formula.compile("=A0")));
+    }
+
+    @Test
+    public void testMalformedFormulas() {
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=INVALID"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=5+*3"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=(5+3"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("=(5+3))"));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("="));
+        assertThrows(IllegalArgumentException.class, () -> Formula.compile("5+3"));
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * A Sheet which makes every set() durable through an append-only journal (a write-ahead log).
+ * Each edit is appended to the journal as a small checksummed record before it is applied to the sheet,
+ * so an edit costs one short sequential write instead of a full save. The journal is group committed:
+ * records are forced to the disk every syncEvery edits (1: every edit is durable when set returns,
+ * 0: each record is handed to the operating system as it is appended, but never forced, so it survives a crash
+ * of the process but not of the system). At most syncEvery - 1 edits may be lost on a crash.
+ * <p>
+ * Every compactEvery edits the sheet is compacted: a binary snapshot of it is taken in memory, the journal is
+ * rotated, and the snapshot is written to the disk by a background thread, which then deletes the older files.
+ * The files of a journaled sheet "name" are name.G.snap (a snapshot covering every journal older than G)
+ * and name.G.journal; opening the sheet loads the newest snapshot and replays the journals which follow it,
+ * up to the first torn or corrupted record.
+ * <p>
+ * Edits must go through set (or load): changing a Cell returned by get directly is not journaled.
+ * The methods of this class are synchronized, so it may be shared by threads.
+ */
+public class JournaledSheet implements Sheet, Closeable {
+    private static final String SNAPSHOT = ".snap", JOURNAL = ".journal", TEMPORARY = ".tmp";
+
+    private final Ex2Sheet sheet;
+    private final Path directory;
+    private final String name;
+    private final int syncEvery, compactEvery;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Ex2 journal compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CRC32 crc = new CRC32();
+    private long generation;      // The generation of the journal being appended to
+    private FileOutputStream journalFile;
+    private DataOutputStream journal;
+    private int unsynced, records; // Edits not forced yet, edits since the last compaction
+    private Future<?> compaction;  // The last background compaction (null if none was started)
+
+    /**
+     * Opens (or creates) a journaled sheet: the content of the given sheet is replaced by the newest snapshot
+     * and the journals which follow it (if any), then a fresh snapshot is written and a new journal is started.
+     * @param sheet the sheet which holds the data.
+     * @param basePath the directory and name of the files of this sheet, e.g., "data/budget".
+     * @param syncEvery force the journal to the disk every syncEvery edits (0: never, only flush each edit).
+     * @param compactEvery compact the journal into a snapshot every compactEvery edits (0: never).
+     * @throws IOException if the files can not be read or written.
+     */
+    public JournaledSheet(Ex2Sheet sheet, String basePath, int syncEvery, int compactEvery) throws IOException {
+        Path base = Paths.get(basePath).toAbsolutePath();
+        this.sheet = sheet;
+        this.directory = base.getParent();
+        this.name = base.getFileName().toString();
+        this.syncEvery = syncEvery;
+        this.compactEvery = compactEvery;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long snapshot = -1, newest = -1;
+        List<Long> journals = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + ".*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(SNAPSHOT + TEMPORARY)) {
+                    String snapshotName = fileName.substring(0, fileName.length() - TEMPORARY.length());
+                    if (generationOf(snapshotName) >= 0) Files.delete(file); // An interrupted compaction
+                    continue;
+                }
+                long g = generationOf(fileName);
+                if (g < 0) continue;
+                newest = Math.max(newest, g);
+                if (fileName.endsWith(SNAPSHOT)) snapshot = Math.max(snapshot, g);
+                else journals.add(g);
+            }
+        }
+        if (snapshot >= 0) {
+            sheet.loadBinary(path(snapshot, SNAPSHOT).toString());
+        }
+        Collections.sort(journals);
+        for (long g : journals) {
+            if (g >= snapshot) replay(path(g, JOURNAL));
+        }
+        generation = newest + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sheet.saveBinary(bytes);
+        writeSnapshot(generation, bytes.toByteArray());
+        deleteOlderThan(generation);
+        openJournal();
+    }
+
+    /**
+     * Applies the records of a journal to the sheet, up to the first torn or corrupted record (the end of the
+     * journal when the process stopped in the middle of an append).
+     */
+    private void replay(Path file) throws IOException {
+        long size = Files.size(file);
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int x, y;
+                byte[] bytes;
+                try {
+                    x = in.readInt();
+                    y = in.readInt();
+                    int length = in.readInt();
+                    if (length < -1 || length > size) return;
+                    bytes = length < 0 ? null : new byte[length];
+                    if (bytes != null) in.readFully(bytes);
+                    if (in.readInt() != checksum(check, x, y, bytes)) return;
+                } catch (EOFException e) {
+                    return;
+                }
+                sheet.set(x, y, bytes == null ? null : new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void set(int x, int y, String c) {
+        try {
+            append(x, y, c);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal the edit of cell " + x + "," + y, e);
+        }
+        sheet.set(x, y, c);
+        if (compactEvery > 0 && ++records >= compactEvery && (compaction == null || compaction.isDone())) {
+            try {
+                checkCompaction();
+                startCompaction();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not compact the journal", e);
+            }
+        }
+    }
+
+    /**
+     * Appends a record: x, y, the length of the UTF-8 content (-1 for null), the content and a CRC32 of them all.
+     */
+    private void append(int x, int y, String c) throws IOException {
+        byte[] bytes = c == null ? null : c.getBytes(StandardCharsets.UTF_8);
+        journal.writeInt(x);
+        journal.writeInt(y);
+        journal.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) journal.write(bytes);
+        journal.writeInt(checksum(crc, x, y, bytes));
+        if (syncEvery == 0) {
+            journal.flush(); // Out of the process, but not forced
+        } else if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces all the journaled edits to the disk.
+     */
+    public synchronized void sync() throws IOException {
+        journal.flush();
+        journalFile.getChannel().force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Takes a snapshot of the sheet in memory and rotates the journal, then writes the snapshot in the background.
+     * Only the in memory serialization is done while holding the lock.
+     */
+    private void startCompaction() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sheet.saveBinary(bytes);
+        closeJournal();
+        long covered = ++generation; // The snapshot covers every journal older than the new one
+        openJournal();
+        records = 0;
+        compaction = compactor.submit(() -> {
+            writeSnapshot(covered, bytes.toByteArray());
+            deleteOlderThan(covered);
+            return null;
+        });
+    }
+
+    /**
+     * Reports the failure of the last background compaction, once it is done. A failure is reported once:
+     * the next compaction starts over (the journals it would have deleted are still there).
+     */
+    private void checkCompaction() throws IOException {
+        if (compaction == null || !compaction.isDone()) return;
+        Future<?> done = compaction;
+        compaction = null;
+        outcome(done);
+    }
+
+    /**
+     * Waits for the running background compaction (if any) to finish.
+     * @throws IOException if the compaction failed.
+     */
+    public void awaitCompaction() throws IOException {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running == null) return;
+        outcome(running);
+    }
+
+    /** Waits for a compaction and rethrows its failure (if any). */
+    private static void outcome(Future<?> compaction) throws IOException {
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal compaction");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Forces the journal to the disk, waits for the background compaction and releases the files.
+     */
+    @Override
+    public void close() throws IOException {
+        awaitCompaction();
+        synchronized (this) {
+            closeJournal();
+            compactor.shutdown();
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journalFile = new FileOutputStream(path(generation, JOURNAL).toFile(), true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalFile));
+        unsynced = 0;
+    }
+
+    private void closeJournal() throws IOException {
+        sync();
+        journal.close();
+    }
+
+    /** Writes a snapshot to a temporary file, forces it to the disk and atomically renames it. */
+    private void writeSnapshot(long g, byte[] bytes) throws IOException {
+        Path temporary = path(g, SNAPSHOT + TEMPORARY);
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        Files.move(temporary, path(g, SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Deletes the snapshots and journals which are older than generation g (a snapshot of g covers them). */
+    private void deleteOlderThan(long g) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + ".*")) {
+            for (Path file : files) {
+                long fileGeneration = generationOf(file.getFileName().toString());
+                if (fileGeneration >= 0 && fileGeneration < g) Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Path path(long g, String suffix) {
+        return directory.resolve(name + "." + g + suffix);
+    }
+
+    /**
+     * @return the generation of a snapshot or journal file of this sheet ("name.G.snap", "name.G.journal"), else -1.
+     */
+    private long generationOf(String fileName) {
+        String suffix = fileName.endsWith(SNAPSHOT) ? SNAPSHOT : fileName.endsWith(JOURNAL) ? JOURNAL : null;
+        if (suffix == null || !fileName.startsWith(name + ".")) return -1;
+        String digits = fileName.substring(name.length() + 1, fileName.length() - suffix.length());
+        if (digits.isEmpty() || digits.length() > 18) return -1;
+        for (int i = 0; i < digits.length(); i++) {
+            if (digits.charAt(i) < '0' || digits.charAt(i) > '9') return -1;
+        }
+        return Long.parseLong(digits);
+    }
+
+    private static int checksum(CRC32 crc, int x, int y, byte[] bytes) {
+        crc.reset();
+        updateInt(crc, x);
+        updateInt(crc, y);
+        updateInt(crc, bytes == null ? -1 : bytes.length);
+        if (bytes != null) crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    // ---------------- Delegated to the sheet ----------------
+
+    @Override
+    public synchronized boolean isIn(int x, int y) {
+        return sheet.isIn(x, y);
+    }
+
+    @Override
+    public synchronized int width() {
+        return sheet.width();
+    }
+
+    @Override
+    public synchronized int height() {
+        return sheet.height();
+    }
+
+    @Override
+    public synchronized Cell get(int x, int y) {
+        return sheet.get(x, y);
+    }
+
+    @Override
+    public synchronized Cell get(String entry) {
+        return sheet.get(entry);
+    }
+
+    @Override
+    public synchronized String value(int x, int y) {
+        return sheet.value(x, y);
+    }
+
+    @Override
+    public synchronized String eval(int x, int y) {
+        return sheet.eval(x, y);
+    }
+
+    @Override
+    public synchronized void eval() {
+        sheet.eval();
+    }
+
+    @Override
+    public synchronized int[][] depth() {
+        return sheet.depth();
+    }
+
+    @Override
+    public synchronized void evaluate(int[][] dd) {
+        sheet.evaluate(dd);
+    }
+
+    @Override
+    public synchronized void save(String fileName) throws IOException {
+        sheet.save(fileName);
+    }
+
+    /**
+     * Replaces the content of this sheet with the given text file and compacts right away,
+     * so the loaded content is durable when this method returns.
+     */
+    @Override
+    public void load(String fileName) throws IOException {
+        awaitCompaction();
+        synchronized (this) {
+            sheet.load(fileName);
+            startCompaction();
+        }
+        awaitCompaction();
+    }
+}
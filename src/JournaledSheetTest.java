@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournaledSheetTest {
+
+    @TempDir
+    Path directory;
+
+    private static long countFiles(Path directory, String suffix) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.toString().endsWith(suffix)).count();
+        }
+    }
+
+    @Test
+    public void testEditsSurviveReopening() throws Exception {
+        String base = directory.resolve("sheet").toString();
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(5, 5), base, 1, 0)) {
+            sheet.set(0, 0, "4");
+            sheet.set(1, 0, "=A0*A0");
+            sheet.set(2, 0, "héllo");
+            sheet.set(0, 0, "5");
+        }
+        try (JournaledSheet reopened = new JournaledSheet(new Ex2Sheet(5, 5), base, 1, 0)) {
+            assertEquals("5", reopened.get(0, 0).getData());
+            assertEquals("25.0", reopened.value(1, 0));
+            assertEquals("héllo", reopened.value(2, 0));
+        }
+    }
+
+    @Test
+    public void testBackgroundCompactionKeepsOnlyTheNewestFiles() throws Exception {
+        String base = directory.resolve("sheet").toString();
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(26, 100), base, 10, 25)) {
+            for (int i = 0; i < 100; i++) {
+                sheet.set(i % 26, i / 26, i == 0 ? "1" : "=" + CellAddress.toRef((i - 1) % 26, (i - 1) / 26) + "+1");
+            }
+            sheet.awaitCompaction();
+        }
+        assertEquals(1, countFiles(directory, ".snap"));
+        assertEquals(1, countFiles(directory, ".journal"));
+        Ex2Sheet restored = new Ex2Sheet(26, 100);
+        try (JournaledSheet reopened = new JournaledSheet(restored, base, 10, 25)) {
+            assertEquals("100.0", reopened.value(99 % 26, 99 / 26));
+            reopened.set(0, 0, "101");
+            assertEquals("200.0", reopened.value(99 % 26, 99 / 26));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws Exception {
+        String base = directory.resolve("sheet").toString();
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(5, 5), base, 1, 0)) {
+            sheet.set(0, 0, "1");
+            sheet.set(0, 1, "2");
+        }
+        File journal;
+        try (Stream<Path> files = Files.list(directory)) {
+            journal = files.filter(f -> f.toString().endsWith(".journal")).findFirst().orElseThrow().toFile();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 2); // The last append was interrupted
+        }
+        try (JournaledSheet reopened = new JournaledSheet(new Ex2Sheet(5, 5), base, 1, 0)) {
+            assertEquals("1", reopened.get(0, 0).getData());
+            assertEquals("", reopened.get(0, 1).getData());
+        }
+    }
+
+    @Test
+    public void testOnlyInterruptedSnapshotsAreDeleted() throws Exception {
+        String base = directory.resolve("s").toString();
+        Path interrupted = directory.resolve("s.3.snap.tmp"), notes = directory.resolve("s.notes.tmp");
+        Files.writeString(interrupted, "torn");
+        Files.writeString(notes, "mine");
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(5, 5), base, 1, 0)) {
+            sheet.set(0, 0, "1");
+        }
+        assertFalse(Files.exists(interrupted));
+        assertEquals("mine", Files.readString(notes));
+    }
+
+    @Test
+    public void testUnforcedEditsLeaveTheProcess() throws Exception {
+        String base = directory.resolve("sheet").toString();
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(5, 5), base, 0, 0)) {
+            sheet.set(0, 0, "1");
+            assertTrue(Files.size(directory.resolve("sheet.0.journal")) > 0, "The record is not left in a buffer.");
+        }
+    }
+
+    @Test
+    public void testFailedCompactionIsReportedBySet() throws Exception {
+        String base = directory.resolve("sheet").toString();
+        try (JournaledSheet sheet = new JournaledSheet(new Ex2Sheet(5, 100), base, 1, 2)) {
+            Files.createDirectory(directory.resolve("sheet.1.snap.tmp")); // The first compaction can not write
+            int edits = 0;
+            UncheckedIOException failure = null;
+            while (failure == null && edits < 100) {
+                try {
+                    sheet.set(0, edits, Integer.toString(edits));
+                } catch (UncheckedIOException e) {
+                    failure = e;
+                }
+                edits++;
+                Thread.sleep(1);
+            }
+            assertNotNull(failure, "The failed compaction was not reported.");
+            sheet.set(1, 0, "=A0+1");                       // The next compaction starts over, and succeeds
+            sheet.set(1, 1, "=A1+1");
+            sheet.awaitCompaction();
+            assertEquals(Integer.toString(edits - 1), sheet.get(0, edits - 1).getData());
+        }
+        try (JournaledSheet reopened = new JournaledSheet(new Ex2Sheet(5, 100), base, 1, 2)) {
+            assertEquals("1", reopened.get(0, 1).getData());
+            assertEquals("2.0", reopened.value(1, 1));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Hand-written scanners for the tokens of the spreadsheet: numbers, cell references, operators and white spaces.
+ * A scanner looks at the characters [from, to) of a CharSequence and returns the index just after the token
+ * found at from, or -1 if there is none: no regular expression, no allocation and no exception.
+ * Shared by the cells, the formula compiler, the coordinate codec and the expression evaluators.
+ */
+public final class Lexer {
+    private Lexer() {}
+
+    public static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    public static boolean isOperator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/';
+    }
+
+    /**
+     * @return the index of the first non white space character in [from, to), or to.
+     */
+    public static int skipSpaces(CharSequence s, int from, int to) {
+        while (from < to && Character.isWhitespace(s.charAt(from))) from++;
+        return from;
+    }
+
+    /**
+     * @return the index after the digits starting at from (from itself if there are none).
+     */
+    public static int skipDigits(CharSequence s, int from, int to) {
+        while (from < to && isDigit(s.charAt(from))) from++;
+        return from;
+    }
+
+    /**
+     * @return the index after the letters starting at from (from itself if there are none).
+     */
+    public static int skipLetters(CharSequence s, int from, int to) {
+        while (from < to && isLetter(s.charAt(from))) from++;
+        return from;
+    }
+
+    /**
+     * Scans an unsigned decimal number: \d+(\.\d+)?
+     * @return the index after the number, or -1.
+     */
+    public static int scanNumber(CharSequence s, int from, int to) {
+        int i = skipDigits(s, from, to);
+        if (i == from) return -1;
+        if (i < to && s.charAt(i) == '.') {
+            int fraction = i + 1;
+            i = skipDigits(s, fraction, to);
+            if (i == fraction) return -1;
+        }
+        return i;
+    }
+
+    /**
+     * Scans an optionally negative decimal number: -?\d+(\.\d+)?
+     * @return the index after the number, or -1.
+     */
+    public static int scanSignedNumber(CharSequence s, int from, int to) {
+        return scanNumber(s, from < to && s.charAt(from) == '-' ? from + 1 : from, to);
+    }
+
+    /**
+     * Scans a cell reference: letters followed by digits (e.g., A0, bb12).
+     * The reference ends at the last digit: the caller decides whether a following letter is an error.
+     * @return the index after the reference, or -1.
+     */
+    public static int scanReference(CharSequence s, int from, int to) {
+        int digits = skipLetters(s, from, to);
+        if (digits == from) return -1;
+        int end = skipDigits(s, digits, to);
+        return end == digits ? -1 : end;
+    }
+
+    /**
+     * Scans a reference of the classic 26x100 Ex2 sheet: one letter and a row of one or two digits (e.g., A0, c99).
+     * @return the index after the reference, or -1 (also if it is followed by more letters or digits).
+     */
+    public static int scanClassicReference(CharSequence s, int from, int to) {
+        if (from >= to || !isLetter(s.charAt(from))) return -1;
+        int end = skipDigits(s, from + 1, to);
+        int digits = end - from - 1;
+        if (digits < 1 || digits > 2 || (end < to && isLetter(s.charAt(end)))) return -1;
+        return end;
+    }
+
+    /**
+     * @return true iff the whole of s is an optionally negative decimal number.
+     */
+    public static boolean isNumber(CharSequence s) {
+        return s != null && scanSignedNumber(s, 0, s.length()) == s.length();
+    }
+}
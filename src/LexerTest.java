@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LexerTest {
+
+    @Test
+    public void testNumbers() {
+        assertEquals(3, Lexer.scanNumber("123+4", 0, 5));
+        assertEquals(4, Lexer.scanNumber("=1.5*", 1, 5));
+        assertEquals(-1, Lexer.scanNumber("1.", 0, 2));
+        assertEquals(-1, Lexer.scanNumber(".5", 0, 2));
+        assertEquals(-1, Lexer.scanNumber("-5", 0, 2));
+        assertEquals(2, Lexer.scanSignedNumber("-5", 0, 2));
+        assertTrue(Lexer.isNumber("-0.25"));
+        assertFalse(Lexer.isNumber("1e5"));
+        assertFalse(Lexer.isNumber(" 1"));
+        assertFalse(Lexer.isNumber(""));
+        assertFalse(Lexer.isNumber(null));
+    }
+
+    @Test
+    public void testReferences() {
+        assertEquals(2, Lexer.scanReference("A1+2", 0, 4));
+        assertEquals(7, Lexer.scanReference("=zzz123", 1, 7));
+        assertEquals(-1, Lexer.scanReference("AB", 0, 2));
+        assertEquals(-1, Lexer.scanReference("12", 0, 2));
+        assertEquals(3, Lexer.scanClassicReference("c99)", 0, 4));
+        assertEquals(-1, Lexer.scanClassicReference("AB5", 0, 3));
+        assertEquals(-1, Lexer.scanClassicReference("A100", 0, 4));
+        assertEquals(-1, Lexer.scanClassicReference("A1B", 0, 3));
+    }
+
+    @Test
+    public void testOperatorsAndSpaces() {
+        for (char c : "+-*/".toCharArray()) {
+            assertTrue(Lexer.isOperator(c));
+        }
+        assertFalse(Lexer.isOperator('&'));
+        assertEquals(3, Lexer.skipSpaces("= \t5", 1, 4));
+        assertEquals(4, Lexer.skipSpaces("=   ", 1, 4));
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Answers the aggregates of ranges (SUM, COUNT, MIN, MAX) in O(log n) per column, and knows which formulas
+ * aggregate a range covering a given cell.
+ * Every column covered by a range has a segment tree over its rows: each node holds the sum, count, minimum and
+ * maximum of the numbers below it, plus flags telling whether an error or a not yet computed formula is below it.
+ * A changed cell updates the log n nodes above it (each from its two children, so no rounding error accumulates)
+ * and a range is answered by combining O(log n) nodes per column. A tree only grows as deep as the last row
+ * used in its column; the columns no range covers have no tree at all.
+ * The ranges covering a column are kept in a second tree over its rows (see Watchers), so the formulas watching
+ * a cell are found in O(log n + k) for k watchers, however many ranges cover other rows of the column.
+ */
+public class RangeIndex {
+    /** Flags of a range: some cell is not computed yet, is on a cycle, or holds a malformed formula. */
+    public static final int PENDING = 1, CYCLE = 2, MALFORMED = 4;
+
+    private Column[] columns = new Column[0];
+
+    /**
+     * @return true iff the column has a tree, i.e., some range covers it.
+     */
+    public boolean isIndexed(int x) {
+        return x < columns.length && columns[x] != null;
+    }
+
+    /**
+     * Creates the (empty) tree of column x if it has none.
+     * @return true iff the tree was created: its cells must then be given to update.
+     */
+    public boolean index(int x) {
+        if (x >= columns.length) columns = Arrays.copyOf(columns, Math.max(x + 1, columns.length * 2));
+        if (columns[x] != null) return false;
+        columns[x] = new Column();
+        return true;
+    }
+
+    /**
+     * Registers a formula which aggregates the range [x1, x2] x [y1, y2]; the columns must be indexed.
+     */
+    public void watch(SCell formula, int x1, int y1, int x2, int y2) {
+        Watcher watcher = new Watcher(formula, y1, y2);
+        for (int x = x1; x <= x2; x++) {
+            columns[x].watchers.add(watcher);
+        }
+    }
+
+    /**
+     * Drops the registration of every range of the given formula of a cell; a column no range covers any more
+     * drops its tree.
+     */
+    public void unwatch(SCell cell, Formula formula) {
+        for (int i = 0; i < formula.getRangeCount(); i++) {
+            int y1 = formula.getRangeY1(i), y2 = formula.getRangeY2(i);
+            for (int x = formula.getRangeX1(i); x <= formula.getRangeX2(i); x++) {
+                if (!isIndexed(x)) continue;
+                Watchers watchers = columns[x].watchers;
+                watchers.remove(cell, y1, y2);
+                if (watchers.isEmpty()) columns[x] = null;
+            }
+        }
+    }
+
+    /**
+     * @return true iff some range covers a row of column x.
+     */
+    public boolean isWatched(int x) {
+        return isIndexed(x) && !columns[x].watchers.isEmpty();
+    }
+
+    /**
+     * Adds the formulas which aggregate a range covering (x, y) to the given collection.
+     */
+    public void addWatchers(int x, int y, Collection<SCell> into) {
+        if (isIndexed(x)) columns[x].watchers.addCovering(y, into);
+    }
+
+    /**
+     * Records the current value (or status) of a cell of the sheet; does nothing if its column is not indexed.
+     */
+    public void update(SCell cell) {
+        long address = cell.getAddress();
+        if (address == CellAddress.NONE || !isIndexed(CellAddress.x(address))) return;
+        int status = cell.getStatus(), flags = 0;
+        if (status == SCell.DIRTY || status == SCell.EVALUATING) flags = PENDING;
+        else if (status != SCell.VALID && cell.isFormulaText()) flags = status == Ex2Utils.ERR_CYCLE_FORM ? CYCLE : MALFORMED;
+        columns[CellAddress.x(address)].set(CellAddress.y(address), status == SCell.VALID, cell.getValue(), flags);
+    }
+
+    /**
+     * @return the flags (PENDING, CYCLE, MALFORMED) of the cells of the range, or -1 if a column of it is not indexed.
+     */
+    public int flags(int x1, int y1, int x2, int y2) {
+        int flags = 0;
+        for (int x = x1; x <= x2; x++) {
+            if (!isIndexed(x)) return -1;
+            flags |= columns[x].flags(y1, y2);
+        }
+        return flags;
+    }
+
+    /**
+     * @return the SUM, COUNT, MIN or MAX of the numbers of the range (see Formula.Env.aggregate).
+     */
+    public double query(int function, int x1, int y1, int x2, int y2) {
+        double result = Formula.identity(function);
+        for (int x = x1; x <= x2; x++) {
+            result = Formula.combine(function, result, columns[x].query(function, y1, y2));
+        }
+        return result;
+    }
+
+    /**
+     * Drops every tree and every registered range.
+     */
+    public void clear() {
+        columns = new Column[0];
+    }
+
+    private static final class Watcher {
+        final SCell formula;
+        final int y1, y2;
+
+        Watcher(SCell formula, int y1, int y2) {
+            this.formula = formula;
+            this.y1 = y1;
+            this.y2 = y2;
+        }
+    }
+
+    /**
+     * The ranges covering rows of one column, as a segment tree over the rows (laid out like Column):
+     * a range is kept in the O(log n) nodes which exactly cover its rows, so the ranges covering a row are the ones
+     * kept on the path from its leaf to the root. The tree doubles (its old root becoming the left child of the new
+     * one) when a range ends past its last row.
+     */
+    private static final class Watchers {
+        private ArrayList<Watcher>[] nodes = newNodes(64);
+        private int capacity = 64, size;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static ArrayList<Watcher>[] newNodes(int capacity) {
+            return new ArrayList[2 * capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(Watcher watcher) {
+            if (watcher.y2 >= capacity) grow(watcher.y2);
+            for (int l = watcher.y1 + capacity, r = watcher.y2 + capacity + 1; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) node(l++).add(watcher);
+                if ((r & 1) == 1) node(--r).add(watcher);
+            }
+            size++;
+        }
+
+        /** Drops the watchers of the given formula over the rows [y1, y2] (it may aggregate the same range twice). */
+        void remove(SCell formula, int y1, int y2) {
+            if (y2 >= capacity) return;
+            boolean first = true;
+            for (int l = y1 + capacity, r = y2 + capacity + 1; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) first = remove(l++, formula, y1, y2, first);
+                if ((r & 1) == 1) first = remove(--r, formula, y1, y2, first);
+            }
+        }
+
+        /** Removes the watchers from one node, counting them off the size at the first node (they are all in each). */
+        private boolean remove(int node, SCell formula, int y1, int y2, boolean first) {
+            ArrayList<Watcher> watchers = nodes[node];
+            if (watchers == null) return first;
+            int before = watchers.size();
+            watchers.removeIf(w -> w.formula == formula && w.y1 == y1 && w.y2 == y2);
+            if (first) size -= before - watchers.size();
+            if (watchers.isEmpty()) nodes[node] = null;
+            return false;
+        }
+
+        void addCovering(int y, Collection<SCell> into) {
+            if (y >= capacity) return;
+            for (int node = capacity + y; node > 0; node >>= 1) {
+                ArrayList<Watcher> watchers = nodes[node];
+                if (watchers == null) continue;
+                for (int i = 0; i < watchers.size(); i++) into.add(watchers.get(i).formula);
+            }
+        }
+
+        private ArrayList<Watcher> node(int node) {
+            ArrayList<Watcher> watchers = nodes[node];
+            if (watchers == null) nodes[node] = watchers = new ArrayList<>(2);
+            return watchers;
+        }
+
+        /** Doubles the capacity until row y fits: node i of depth d moves to i + 2^d, keeping the rows it covers. */
+        private void grow(int y) {
+            while (capacity <= y) {
+                ArrayList<Watcher>[] old = nodes;
+                nodes = newNodes(2 * capacity);
+                for (int node = 1; node < old.length; node++) {
+                    nodes[node + Integer.highestOneBit(node)] = old[node];
+                }
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * The segment tree of one column: node 1 is the root, the children of node i are 2i and 2i + 1,
+     * and the leaf of row y is node capacity + y. Empty rows hold the identities (0, 0, +Infinity, -Infinity).
+     */
+    private static final class Column {
+        final Watchers watchers = new Watchers();
+        int capacity;
+        double[] sum, min, max;
+        int[] count, flags;
+
+        Column() {
+            allocate(64);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            sum = new double[2 * capacity];
+            min = new double[2 * capacity];
+            max = new double[2 * capacity];
+            count = new int[2 * capacity];
+            flags = new int[2 * capacity];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        void set(int y, boolean number, double value, int cellFlags) {
+            if (y >= capacity) {
+                if (!number && cellFlags == 0) return; // Nothing to record beyond the last used row
+                grow(y);
+            }
+            int node = capacity + y;
+            sum[node] = number ? value : 0;
+            min[node] = number ? value : Double.POSITIVE_INFINITY;
+            max[node] = number ? value : Double.NEGATIVE_INFINITY;
+            count[node] = number ? 1 : 0;
+            flags[node] = cellFlags;
+            for (node >>= 1; node > 0; node >>= 1) pull(node);
+        }
+
+        private void pull(int node) {
+            int left = 2 * node, right = left + 1;
+            sum[node] = sum[left] + sum[right];
+            min[node] = Math.min(min[left], min[right]);
+            max[node] = Math.max(max[left], max[right]);
+            count[node] = count[left] + count[right];
+            flags[node] = flags[left] | flags[right];
+        }
+
+        /** Doubles the capacity until row y fits, keeping the leaves and rebuilding the nodes above them. */
+        private void grow(int y) {
+            int oldCapacity = capacity;
+            double[] oldSum = sum, oldMin = min, oldMax = max;
+            int[] oldCount = count, oldFlags = flags;
+            int newCapacity = capacity;
+            while (newCapacity <= y) newCapacity *= 2;
+            allocate(newCapacity);
+            System.arraycopy(oldSum, oldCapacity, sum, capacity, oldCapacity);
+            System.arraycopy(oldMin, oldCapacity, min, capacity, oldCapacity);
+            System.arraycopy(oldMax, oldCapacity, max, capacity, oldCapacity);
+            System.arraycopy(oldCount, oldCapacity, count, capacity, oldCapacity);
+            System.arraycopy(oldFlags, oldCapacity, flags, capacity, oldCapacity);
+            for (int node = capacity - 1; node > 0; node--) pull(node);
+        }
+
+        int flags(int y1, int y2) {
+            int result = 0;
+            for (int l = y1 + capacity, r = Math.min(y2, capacity - 1) + capacity + 1; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) result |= flags[l++];
+                if ((r & 1) == 1) result |= flags[--r];
+            }
+            return result;
+        }
+
+        double query(int function, int y1, int y2) {
+            double result = Formula.identity(function);
+            for (int l = y1 + capacity, r = Math.min(y2, capacity - 1) + capacity + 1; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) result = Formula.combine(function, result, node(function, l++));
+                if ((r & 1) == 1) result = Formula.combine(function, result, node(function, --r));
+            }
+            return result;
+        }
+
+        private double node(int function, int node) {
+            return switch (function) {
+                case Formula.SUM -> sum[node];
+                case Formula.COUNT -> count[node];
+                case Formula.MIN -> min[node];
+                default -> max[node];
+            };
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeIndexTest {
+
+    private static SCell cell(int x, int y, String content) {
+        SCell cell = new SCell(content);
+        cell.setAddress(CellAddress.pack(x, y));
+        return cell;
+    }
+
+    @Test
+    public void testAggregatesGrowWithTheColumn() {
+        RangeIndex index = new RangeIndex();
+        assertTrue(index.index(2));
+        assertFalse(index.index(2));
+        assertEquals(-1, index.flags(1, 0, 2, 10));
+        for (int y = 0; y < 5000; y += 7) {
+            index.update(cell(2, y, Integer.toString(y)));
+        }
+        index.update(cell(2, 1, "text"));
+        index.update(cell(3, 1, "5"));     // Not indexed, ignored
+        assertEquals(0, index.flags(2, 0, 2, 1 << 20));
+        assertEquals(715, index.query(Formula.COUNT, 2, 0, 2, 4999));
+        assertEquals(7.0 * 714 * 715 / 2, index.query(Formula.SUM, 2, 0, 2, 4999));
+        assertEquals(14, index.query(Formula.MIN, 2, 8, 2, 4999));
+        assertEquals(4991, index.query(Formula.MAX, 2, 0, 2, 4997));
+        assertEquals(Double.POSITIVE_INFINITY, index.query(Formula.MIN, 2, 1, 2, 6));
+        index.update(cell(2, 14, ""));
+        assertEquals(21, index.query(Formula.MIN, 2, 8, 2, 4999));
+    }
+
+    @Test
+    public void testFlagsAndWatchers() {
+        RangeIndex index = new RangeIndex();
+        index.index(0);
+        SCell pending = cell(0, 3, "=1+1"), malformed = cell(0, 4, "=1+");
+        index.update(pending);
+        index.update(malformed);
+        assertEquals(RangeIndex.PENDING | RangeIndex.MALFORMED, index.flags(0, 0, 0, 9));
+        assertEquals(0, index.flags(0, 5, 0, 9));
+        pending.setValue(2, SCell.VALID);
+        index.update(pending);
+        assertEquals(RangeIndex.MALFORMED, index.flags(0, 0, 0, 9));
+
+        SCell formula = cell(5, 5, "=SUM(A0:A9)");
+        index.watch(formula, 0, 0, 0, 9);
+        assertTrue(index.isWatched(0));
+        List<SCell> watchers = new ArrayList<>();
+        index.addWatchers(0, 10, watchers);
+        assertTrue(watchers.isEmpty());
+        index.addWatchers(0, 9, watchers);
+        assertEquals(List.of(formula), watchers);
+        index.unwatch(formula, formula.getFormula());
+        assertFalse(index.isIndexed(0));
+    }
+
+    @Test
+    public void testWatchersAreFoundByRow() {
+        RangeIndex index = new RangeIndex();
+        index.index(0);
+        SCell low = cell(3, 0, "=SUM(A0:A9)"), high = cell(3, 1, "=MAX(A5:A5000)");
+        SCell twice = cell(3, 2, "=SUM(A100:A200)+COUNT(A100:A200)");
+        index.watch(low, 0, 0, 0, 9);
+        index.watch(high, 0, 5, 0, 5000); // Grows the tree past its first 64 rows
+        index.watch(twice, 0, 100, 0, 200);
+        index.watch(twice, 0, 100, 0, 200);
+        assertEquals(List.of(low), watchers(index, 0, 4));
+        assertEquals(List.of(low, high), sorted(watchers(index, 0, 7)));
+        assertEquals(List.of(high), watchers(index, 0, 5000));
+        assertEquals(List.of(high, twice, twice), sorted(watchers(index, 0, 150)));
+        assertTrue(watchers(index, 0, 5001).isEmpty());
+        assertTrue(watchers(index, 1, 7).isEmpty());
+
+        index.unwatch(twice, twice.getFormula());
+        assertEquals(List.of(high), watchers(index, 0, 150));
+        index.unwatch(high, high.getFormula());
+        assertEquals(List.of(low), watchers(index, 0, 7));
+        assertTrue(index.isWatched(0));
+        index.unwatch(low, low.getFormula());
+        assertFalse(index.isIndexed(0));
+    }
+
+    private static List<SCell> watchers(RangeIndex index, int x, int y) {
+        List<SCell> watchers = new ArrayList<>();
+        index.addWatchers(x, y, watchers);
+        return watchers;
+    }
+
+    private static List<SCell> sorted(List<SCell> cells) {
+        cells.sort(Comparator.comparingLong(SCell::getAddress));
+        return cells;
+    }
+}
@@ -1,55 +1,113 @@
 import java.util.*;
-import java.util.regex.Pattern;
 
 public class SCell implements Cell {
-    private String line; // The raw content of the cell
-    private int type;    // The type of the cell (e.g., TEXT, NUMBER, FORMULA)
+    private String line; // The raw content of the cell (null for a shared formula, whose text is rebuilt from it)
+    private int type;    // The type of the cell (TEXT, NUMBER, FORM or ERR_FORM_FORMAT), classified once per content
     private int order;   // Computation order of the cell
-    private String evaluated; // Evaluated value of the cell (after formula resolution)
-
-    // Dependency management
-    private final Set<SCell> dependents = new HashSet<>();
-    private final Map<String, SCell> dependencies = new HashMap<>();
+    private String evaluated; // Display string of the value, formatted lazily on the first read
+    private Formula formula;  // Compiled formula (null if the cell is not a well formed formula)
+    private boolean numeric;  // True iff the raw content is a number
+    private long address = CellAddress.NONE; // Packed coordinates of the cell in its sheet (NONE if not in a sheet)
+
+    // The numeric result of the cell: a value plus a status (DIRTY, EVALUATING, VALID or an Ex2Utils error code).
+    // A number cell is always VALID, a text cell or a malformed formula is an ERR_FORM_FORMAT when used as a number.
+    public static final int DIRTY = 0, VALID = 1, EVALUATING = 2;
+    private int status = DIRTY;
+    private double value;
+    private int pendingInputs; // Dirty dependencies not yet recomputed (used while the sheet recalculates)
+
+    // Dependency management: created on the first link, so a constant cell which nothing references allocates none
+    private Set<SCell> dependents;
+    private Set<SCell> dependencies;
 
     /**
      * Constructor - initializes the raw data of the cell.
      */
     public SCell(String rawLine) {
         setData(rawLine);
-        this.type = Ex2Utils.TEXT;
         this.order = 0;
     }
 
+    /**
+     * Constructor of a cell of a sheet: its formula (if any) is shared through the given templates.
+     */
+    public SCell(String rawLine, long address, FormulaTemplates templates) {
+        this.address = address;
+        setData(rawLine, templates);
+    }
+
     /**
      * Constructor with both raw and evaluated values.
      */
     public SCell(String original, String evaluated) {
         this.line = original;
+        compile(null);
         this.evaluated = evaluated;
-        this.type = isFormula(original) ? Ex2Utils.FORM : Ex2Utils.TEXT;
+    }
+
+    /**
+     * Creates a number cell from its text and its already known value (e.g., read from a binary snapshot),
+     * without parsing the text again.
+     */
+    public static SCell number(String text, double value) {
+        SCell cell = new SCell(Ex2Utils.EMPTY_CELL);
+        cell.line = text;
+        cell.type = Ex2Utils.NUMBER;
+        cell.numeric = true;
+        cell.value = value;
+        cell.status = VALID;
+        return cell;
     }
 
     // ---------------- Core Utility Functions ----------------
 
     /**
-     * Determines if the given string is a valid formula.
+     * Determines if the given string is a valid formula of the classic Ex2 grammar:
+     * '=' followed by numbers and cell references (one letter and a row of 0-99),
+     * combined with + - * / and balanced parentheses; a number, reference or parenthesis may be negated.
+     * The text is scanned by hand with the Lexer - no regular expressions.
+     * This is the legacy check of computeForm, which evaluates a formula on its own: the cells of a sheet are
+     * parsed by Formula.compile instead, whose grammar is wider (e.g., "=AB5+3", functions and ranges).
      */
     public static boolean isFormula(String input) {
         if (input == null || !input.startsWith("=")) {
             return false; // Not a formula if no "=" at start
         }
+        int end = scanExpression(input, 1, input.length());
+        return end >= 0 && Lexer.skipSpaces(input, end, input.length()) == input.length();
+    }
 
-        // Strip the leading '=' and validate expression
-        String formulaBody = input.substring(1).trim();
-        return formulaBody.matches("-?\\d+(\\.\\d+)?([+\\-*/]-?\\d+(\\.\\d+)?)*");
+    /** expression = operand (operator operand)*. @return the index after it, or -1. */
+    private static int scanExpression(String s, int from, int to) {
+        int i = scanOperand(s, from, to);
+        while (i >= 0) {
+            int next = Lexer.skipSpaces(s, i, to);
+            if (next == to || !Lexer.isOperator(s.charAt(next))) break;
+            i = scanOperand(s, next + 1, to);
+        }
+        return i;
+    }
+
+    /** operand = '-'? (number | reference | '(' expression ')'). @return the index after it, or -1. */
+    private static int scanOperand(String s, int from, int to) {
+        int i = Lexer.skipSpaces(s, from, to);
+        if (i < to && s.charAt(i) == '-') i = Lexer.skipSpaces(s, i + 1, to);
+        if (i == to) return -1;
+        if (s.charAt(i) == '(') {
+            int end = scanExpression(s, i + 1, to);
+            if (end < 0) return -1;
+            end = Lexer.skipSpaces(s, end, to);
+            return end < to && s.charAt(end) == ')' ? end + 1 : -1;
+        }
+        int end = Lexer.scanNumber(s, i, to);
+        return end >= 0 ? end : Lexer.scanClassicReference(s, i, to);
     }
 
     /**
      * Determines whether the given string is numeric.
      */
     public static boolean isNumber(String strNum) {
-        if (strNum == null) return false;
-        return Pattern.matches("-?\\d+(\\.\\d+)?", strNum);
+        return Lexer.isNumber(strNum);
     }
     /**
      * Computes the result of a formula.
@@ -106,7 +164,7 @@ public class SCell implements Cell {
             return result;
         }
         int start = index[0];
-        while (index[0] < chars.length && (Character.isDigit(chars[index[0]]) || chars[index[0]] == '.')) {
+        while (index[0] < chars.length && (Lexer.isDigit(chars[index[0]]) || chars[index[0]] == '.')) {
             index[0]++;
         }
         return Double.parseDouble(new String(chars, start, index[0] - start));
@@ -118,7 +176,8 @@ public class SCell implements Cell {
      * Clears all dependencies for reevaluation.
      */
     public void clearDependencies() {
-        for (SCell dependency : dependencies.values()) {
+        if (dependencies == null) return;
+        for (SCell dependency : dependencies) {
             dependency.dependents.remove(this);
         }
         dependencies.clear();
@@ -127,86 +186,156 @@ public class SCell implements Cell {
     /**
      * Adds a dependency on another cell.
      */
-    private void addDependency(String refName, SCell referencedCell) {
-        dependencies.put(refName, referencedCell);
+    public void addDependency(SCell referencedCell) {
+        if (dependencies == null) dependencies = new HashSet<>();
+        if (referencedCell.dependents == null) referencedCell.dependents = new HashSet<>();
+        dependencies.add(referencedCell);
         referencedCell.dependents.add(this);
     }
 
+    /**
+     * @return the cells this cell's formula is linked to.
+     */
+    public Set<SCell> getDependencies() {
+        return dependencies == null ? Collections.emptySet() : dependencies;
+    }
+
+    /**
+     * @return the cells whose formulas reference this cell.
+     */
+    public Set<SCell> getDependents() {
+        return dependents == null ? Collections.emptySet() : dependents;
+    }
+
+    /**
+     * @return the packed coordinates (see CellAddress) of this cell in its sheet, or CellAddress.NONE.
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    public void setAddress(long address) {
+        this.address = address;
+    }
+
+    public int getPendingInputs() {
+        return pendingInputs;
+    }
+
+    public void setPendingInputs(int pendingInputs) {
+        this.pendingInputs = pendingInputs;
+    }
+
     /**
      * Updates the raw content of the cell.
      */
     @Override
     public void setData(String content) {
+        setData(content, null);
+    }
+
+    /**
+     * Updates the raw content of the cell; a formula is taken from (or added to) the given templates, if this
+     * cell has an address. A shareable formula does not keep its text: getData rebuilds it.
+     */
+    public void setData(String content, FormulaTemplates templates) {
         this.line = content;
+        compile(templates);
+    }
 
-        if (!isFormula(content)) {
-            this.evaluated = content; // Plain content
-            clearDependencies(); // Remove dependencies if not a formula
-        } else {
-            this.evaluated = null; // Needs evaluation
+    /**
+     * Parses and classifies the raw content once: formulas are compiled into an expression tree and numbers
+     * into a double, so reading the cell (its value or its type) never re-parses its text.
+     * Called whenever the text changes.
+     */
+    private void compile(FormulaTemplates templates) {
+        this.formula = null;
+        this.numeric = false;
+        this.value = 0;
+        this.evaluated = null;
+        this.type = Ex2Utils.TEXT;
+        this.status = Ex2Utils.ERR_FORM_FORMAT; // Text (and empty) cells can not be used as numbers
+        if (line == null) return;
+        if (line.startsWith("=")) {
+            try {
+                boolean shared = templates != null && address != CellAddress.NONE;
+                this.formula = shared ? templates.compile(line, CellAddress.x(address), CellAddress.y(address))
+                        : Formula.compile(line);
+                this.type = Ex2Utils.FORM;
+                this.status = DIRTY;
+                if (shared && formula.isShareable()) this.line = null;
+            } catch (IllegalArgumentException e) {
+                this.formula = null; // Malformed formula - evaluates to ERR_FORM
+                this.type = Ex2Utils.ERR_FORM_FORMAT;
+            }
+        } else if (isNumber(line)) {
+            this.numeric = true;
+            this.type = Ex2Utils.NUMBER;
+            this.value = Double.parseDouble(line);
+            this.status = VALID;
         }
     }
 
     /**
-     * Evaluates the content of the cell, resolving formulas and references.
+     * @return the compiled formula of this cell, or null if it does not hold a well formed formula.
      */
-    public void evaluate(Map<String, SCell> cellMap) {
-        if (!isFormula(line)) {
-            this.evaluated = line; // Non-formula content is just raw content
-            return;
-        }
+    public Formula getFormula() {
+        return formula;
+    }
 
-        try {
-            clearDependencies(); // Reset dependencies before evaluation
-            String formula = line.substring(1); // Remove '='
-            String[] tokens = formula.split("\\s+"); // Split tokens by spaces
-
-            double result = 0.0;
-            String operator = "+";
-            boolean expectingOperand = true;
-
-            for (String token : tokens) {
-                if (token.matches("[-+*/()]")) { // Operators or parentheses
-                    operator = token;
-                    expectingOperand = true;
-                } else if (cellMap.containsKey(token)) { // Cell reference
-                    SCell referencedCell = cellMap.get(token);
-                    addDependency(token, referencedCell); // Track dependency
-                    double referencedValue = Double.parseDouble(referencedCell.getEvaluated());
-                    result = calculate(result, referencedValue, operator);
-                    expectingOperand = false;
-                } else if (isNumber(token)) { // Numeric literals
-                    double value = Double.parseDouble(token);
-                    result = calculate(result, value, operator);
-                    expectingOperand = false;
-                } else {
-                    throw new IllegalArgumentException("Invalid token in formula: " + token);
-                }
-            }
+    /**
+     * @return true iff this cell's text starts with '=' (a well formed formula or not).
+     */
+    public boolean isFormulaText() {
+        return line == null ? formula != null : line.startsWith("=");
+    }
 
-            if (expectingOperand) {
-                throw new IllegalArgumentException("Malformed formula: Missing operand.");
-            }
+    /**
+     * @return true iff this cell holds no content (an empty or null text).
+     */
+    public boolean isEmpty() {
+        return line == null ? formula == null : line.isEmpty();
+    }
 
-            this.evaluated = String.valueOf(result); // Save computed value
-        } catch (Exception e) {
-            this.evaluated = Ex2Utils.ERR_FORM; // Evaluation error
-        }
+    /**
+     * @return the status of the cached formula result: DIRTY, EVALUATING, VALID,
+     * Ex2Utils.ERR_FORM_FORMAT or Ex2Utils.ERR_CYCLE_FORM.
+     */
+    public int getStatus() {
+        return status;
+    }
 
-        // Notify dependents for reevaluation
-        for (SCell dependent : dependents) {
-            dependent.evaluate(cellMap);
-        }
+    /**
+     * @return the numeric value of this cell (meaningful only when the status is VALID).
+     */
+    public double getValue() {
+        return value;
     }
 
-    private double calculate(double left, double right, String operator) {
-        return switch (operator) {
-            case "+" -> left + right;
-            case "-" -> left - right;
-            case "*" -> left * right;
-            case "/" -> left / right;
-            default -> throw new IllegalArgumentException("Unsupported operator: " + operator);
-        };
+    /**
+     * Marks the formula of this cell as being evaluated (a reference back to it is a cycle).
+     */
+    public void markEvaluating() {
+        this.status = EVALUATING;
+    }
+
+    /**
+     * Caches the result of evaluating the formula of this cell.
+     * @param value the computed value.
+     * @param status VALID, Ex2Utils.ERR_FORM_FORMAT or Ex2Utils.ERR_CYCLE_FORM.
+     */
+    public void setValue(double value, int status) {
+        this.value = value;
+        this.status = status;
+        this.evaluated = null; // Formatted again only if (and when) it is displayed
+    }
+
+    /**
+     * Drops the cached formula result, it will be recomputed on the next read.
+     */
+    public void invalidate() {
+        this.status = DIRTY;
+        this.evaluated = null;
     }
 
     @Override
@@ -221,11 +350,14 @@ public class SCell implements Cell {
 
     @Override
     public String getData() {
-        return line;
+        return line != null || formula == null ? line : formula.toText();
     }
+    /**
+     * @return the type of this cell, as classified when its content was set (or as set by setType).
+     */
     @Override
     public int getType() {
-        return getType(this.line);
+        return type;
     }
     public void setType(int type, String cellData) {
         this.type = type;
@@ -233,60 +365,50 @@ public class SCell implements Cell {
             this.evaluated = computeForm(cellData);
         }
     }
-    public int getType(String cellData) {
-        if (cellData == null || cellData.trim().isEmpty()) {
-            return 0; // Empty cell
-        }
-        if (cellData.equals(Ex2Utils.ERR_FORM)) {
-            return Ex2Utils.ERR; // Invalid formula
-        }
-        if (cellData.startsWith("=")) {
-            // Extract the expression and trim it
-            String formula = cellData.substring(1).trim();
-
-            // If valid formula (including standalone negative numbers like `=-9`), return FORM
-            if (isValidFormula(formula) || isNumeric(formula)) {
-                return Ex2Utils.FORM;
-            }
-            return Ex2Utils.ERR; // Invalid formula
-        }
-        if (isNumeric(cellData)) {
-            return Ex2Utils.NUMBER; // Numeric value
-        }
-        if (cellData.startsWith("'")) {
-            return Ex2Utils.TEXT; // Explicit text (e.g., "'Hello")
-        }
-        return Ex2Utils.TEXT; // Default to text
-    }
-
-    private boolean isNumeric(String data) {
-        try {
-            Double.parseDouble(data);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
-    }
-
-    private boolean isValidFormula(String formula) {
-        // Example regex for mathematical expressions like -12, 23+6, or (A1+B2)
-        return formula.matches("[A-Za-z0-9\\+\\-\\*/\\(\\)\\.\\s]+"); // Regex to allow valid operations
-    }
 
     @Override
     public void setType(int type) {
         this.type = type;
     }
 
+    /**
+     * @return the string presented for this cell: the formatted number, the formula result (or its error)
+     * or the text itself. Formatting is done once per value and only when the cell is displayed.
+     */
     public String getEvaluated() {
+        if (evaluated == null) {
+            evaluated = format();
+        }
         return evaluated;
     }
 
+    /**
+     * Like getEvaluated, but never writes to this cell (the formatted string is not cached),
+     * so it may race with a writer: used by optimistic readers which validate what they read.
+     * @return the string presented for this cell, or null if its formula is not computed.
+     */
+    public String peekEvaluated() {
+        String cached = evaluated;
+        return cached != null ? cached : format();
+    }
+
+    private String format() {
+        if (isFormulaText()) {
+            return switch (status) {
+                case VALID -> Double.toString(value);
+                case DIRTY, EVALUATING -> null; // Not computed yet
+                case Ex2Utils.ERR_CYCLE_FORM -> Ex2Utils.ERR_CYCLE;
+                default -> Ex2Utils.ERR_FORM;
+            };
+        }
+        return numeric ? Double.toString(value) : line;
+    }
+
     @Override
     public String toString() {
         return getEvaluated();
     }
     public String getOriginal() {
-        return line;
+        return getData();
     }
 }
\ No newline at end of file
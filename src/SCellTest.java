@@ -84,4 +84,21 @@ public class SCellTest {
         assertEquals(Ex2Utils.ERR_FORM, SCell.computeForm("=(5+3))"), "Mismatched parentheses should result in an error.");
         assertEquals(Ex2Utils.ERR_FORM, SCell.computeForm("=(3+)"), "Incomplete formulas should return an error.");
     }
+
+    @Test
+    public void testTypeIsClassifiedOnceWhenSet() {
+        SCell cell = new SCell("12.5");
+        assertEquals(Ex2Utils.NUMBER, cell.getType());
+        cell.setData("=A1*2");
+        assertEquals(Ex2Utils.FORM, cell.getType());
+        cell.setData("=5+*3");
+        assertEquals(Ex2Utils.ERR_FORM_FORMAT, cell.getType());
+        cell.setData("1e5");
+        assertEquals(Ex2Utils.TEXT, cell.getType(), "Only plain decimal numbers are numbers in a sheet.");
+        cell.setType(Ex2Utils.ERR_CYCLE_FORM);
+        assertEquals(Ex2Utils.ERR_CYCLE_FORM, cell.getType());
+        assertFalse(SCell.isNumber("-"));
+        assertFalse(SCell.isNumber("1."));
+        assertTrue(SCell.isNumber("-0.25"));
+    }
 }